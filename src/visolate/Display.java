@@ -31,7 +31,7 @@ import java.text.*;
 import javax.media.j3d.*;
 import javax.vecmath.*;
 
-public class Display extends JPanel {
+public class Display extends JPanel implements Renderer {
 
   private static final long serialVersionUID = 1L;
 
@@ -822,6 +822,23 @@ public class Display extends JPanel {
     return raster.getImage().getImage();
   }
 
+  public boolean isConcurrent() {
+    return false;
+  }
+
+  public boolean needsVoronoiCones() {
+    return true;
+  }
+
+  public BufferedImage renderTile(double x, double y)
+    throws InterruptedException {
+
+    setCenter(x, y);
+    waitForViewUpdate();
+
+    return getStill();
+  }
+
 //work around j3d bug
 //  public BufferedImage getStill(BufferedImage bufferedImage)
 //    throws InterruptedException {
@@ -1158,6 +1175,18 @@ public class Display extends JPanel {
   }
 
   public Color3b getRandomColor() {
+    return getRandomColor(rCeil, gCeil, bCeil);
+  }
+
+  /**
+   * A random color of medium intensity which is exactly representable in a
+   * frame buffer with the given number of levels per channel.
+   */
+  public static Color3b getRandomColor(int rCeil, int gCeil, int bCeil) {
+
+    int rSpread = 256/rCeil;
+    int gSpread = 256/gCeil;
+    int bSpread = 256/bCeil;
 
     double y = 0.5;
 
@@ -80,8 +80,14 @@ public class Main extends JApplet {
     options.addOption( "cf", "cutting-feedrate", true, "Feedrate during cutting in mm or inch per minute." );
     options.addOption( "pf", "plunge-feedrate", true, "Feedrate when moving vertically into the workpiece in mm or inch per minute." );
     options.addOption( "d", "dpi", true, "The dpi value to use for rastering. This influences the granularity of the G-code output.");
+    options.addOption( "sr", "software-renderer", false, "Render the tiles for processing on the CPU instead of with Java3D.");
+    options.addOption( "vc", "voronoi-cones", false, "Make the software renderer draw voronoi regions from cones like Java3D does, instead of by the exact distance transform.");
+    options.addOption( "t", "threads", true, "Number of tiles to render and process at once with the software renderer. The default is the number of processors.");
+    options.addOption( "ot", "optimize-tour", true, "Spend up to this many milliseconds shortening the rapid moves between toolpaths. The default is 0, which cuts them in nearest neighbor order.");
+    options.addOption( "ar", "arcs", false, "Write toolpath curves as G2/G3 arcs where they fit within tolerance, instead of only straight G1 lines.");
     options.addOption( "a", "auto", false, "Auto-mode (run, save and exit).");
-    options.addOption( "o", "outfile", true, "Name of output file.");
+    options.addOption( "hl", "headless", false, "Run without any window: load the file, compute toolpaths, save G-code and exit. Implies software rendering.");
+    options.addOption( "o", "outfile", true, "Name of output file, - for standard output in headless mode.");
 
     CommandLine commandline;
     try {
@@ -108,6 +114,11 @@ public class Main extends JApplet {
             System.exit(1);
     }
 
+    if (commandline.hasOption("headless")) {
+      runHeadless(commandline);
+      return;
+    }
+
     final JFrame frame = new JFrame(APPNAME);
 
     frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -144,67 +155,144 @@ public class Main extends JApplet {
             visolate.loadDemo();
           }
 
-          if (visolate.commandline.hasOption("flip-x")) {
-            visolate.model.setFlipX(true);
-          }
+          applyOptions(visolate);
 
-          if (visolate.commandline.hasOption("flip-y")) {
-            visolate.model.setFlipY(true);
-          }
+          if (visolate.commandline.hasOption("auto")) {
+            System.out.println("Automatic processing enabled! Files will be overwritten without asking!");
+            System.out.println("Now starting fixing topology due to automatic mode.");
+            visolate.auto_mode=true;
+            visolate.processstatus=1;
 
-          if (visolate.commandline.hasOption("inch")) {
-            visolate.gCodeWriter.setIsMetric(false);
+            visolate.fixTopology();
+            // fix.Topology() calls visolate.processFinished after its done. Also, the Toolpathprocessor does so. processstatus discriminates this.
           }
 
-          if (visolate.commandline.hasOption("relative")) {
-            visolate.gCodeWriter.setIsAbsolute(false);
-          }
+          visolate.model.rebuild();
+        }
+      });
+  }
 
-          if (visolate.commandline.hasOption("cutting-height")) {
-            visolate.gCodeWriter.setZCuttingHeight(Double.parseDouble(visolate.commandline.getOptionValue("cutting-height")));
-          }
+  /**
+   * Runs the whole pipeline on the main thread, without creating a frame or
+   * a Java3D universe.
+   */
+  private static void runHeadless(CommandLine commandline) {
 
-          if (visolate.commandline.hasOption("travel-clearance")) {
-            visolate.gCodeWriter.setZClearance(Double.parseDouble(visolate.commandline.getOptionValue("travel-clearance")));
-          }
+    System.setProperty("java.awt.headless", "true");
 
-          if (visolate.commandline.hasOption("x-offset")) {
-            visolate.gCodeWriter.setXOffset(Double.parseDouble(visolate.commandline.getOptionValue("x-offset")));
-          }
+    // With G-code going to stdout, all the chatter goes to stderr.
+    PrintStream gcodeStream = null;
+    if ("-".equals(commandline.getOptionValue("outfile"))) {
+      gcodeStream = System.out;
+      System.setOut(System.err);
+    }
 
-          if (visolate.commandline.hasOption("y-offset")) {
-            visolate.gCodeWriter.setYOffset(Double.parseDouble(visolate.commandline.getOptionValue("y-offset")));
-          }
+    if (commandline.getArgs().length != 1) {
+      System.err.println("Error: Headless mode needs an input file.");
+      System.exit(1);
+    }
 
-          if (visolate.commandline.hasOption("cutting-feedrate")) {
-            visolate.gCodeWriter.setMillingFeedrate(Double.parseDouble(visolate.commandline.getOptionValue("cutting-feedrate")));
-          }
+    File file = new File(commandline.getArgs()[0]);
 
-          if (visolate.commandline.hasOption("plunge-feedrate")) {
-            visolate.gCodeWriter.setPlungeFeedrate(Double.parseDouble(visolate.commandline.getOptionValue("plunge-feedrate")));
-          }
+    if (!file.isFile()) {
+      System.err.println("Error: File not found: " + file);
+      System.exit(1);
+    }
 
-          if (visolate.commandline.hasOption("dpi")) {
-            visolate.getDisplay().setDPI(Integer.parseInt(visolate.commandline.getOptionValue("dpi")));
-          }
+    Visolate visolate = new Visolate(null, true);
+    visolate.commandline = commandline;
 
-          if (visolate.commandline.hasOption("outfile")) {
-            visolate.setGcodeFile(visolate.commandline.getOptionValue("outfile"));
-          }
+    if (!visolate.loadFile(file)) {
+      System.err.println("Error: Could not read " + file + ", no G-code written.");
+      System.exit(1);
+    }
 
-          if (visolate.commandline.hasOption("auto")) {
-            System.out.println("Automatic processing enabled! Files will be overwritten without asking!");
-            System.out.println("Now starting fixing topology due to automatic mode.");
-            visolate.auto_mode=true;
-            visolate.processstatus=1;
+    applyOptions(visolate);
 
-            visolate.fixTopology();
-            // fix.Topology() calls visolate.processFinished after its done. Also, the Toolpathprocessor does so. processstatus discriminates this.
-          }
+    if (gcodeStream != null) {
+      visolate.setGCodeStream(gcodeStream);
+    }
 
-          visolate.model.rebuild();
-        }
-      });
+    if (!visolate.runBatch()) {
+      System.err.println("Error: G-code could not be written.");
+      System.exit(1);
+    }
+
+    System.out.println("Exiting, all work done");
+    System.exit(0);
+  }
+
+  private static void applyOptions(Visolate visolate) {
+
+    CommandLine commandline = visolate.commandline;
+
+    if (commandline.hasOption("flip-x")) {
+      visolate.model.setFlipX(true);
+    }
+
+    if (commandline.hasOption("flip-y")) {
+      visolate.model.setFlipY(true);
+    }
+
+    if (commandline.hasOption("inch")) {
+      visolate.gCodeWriter.setIsMetric(false);
+    }
+
+    if (commandline.hasOption("relative")) {
+      visolate.gCodeWriter.setIsAbsolute(false);
+    }
+
+    if (commandline.hasOption("cutting-height")) {
+      visolate.gCodeWriter.setZCuttingHeight(Double.parseDouble(commandline.getOptionValue("cutting-height")));
+    }
+
+    if (commandline.hasOption("travel-clearance")) {
+      visolate.gCodeWriter.setZClearance(Double.parseDouble(commandline.getOptionValue("travel-clearance")));
+    }
+
+    if (commandline.hasOption("x-offset")) {
+      visolate.gCodeWriter.setXOffset(Double.parseDouble(commandline.getOptionValue("x-offset")));
+    }
+
+    if (commandline.hasOption("y-offset")) {
+      visolate.gCodeWriter.setYOffset(Double.parseDouble(commandline.getOptionValue("y-offset")));
+    }
+
+    if (commandline.hasOption("cutting-feedrate")) {
+      visolate.gCodeWriter.setMillingFeedrate(Double.parseDouble(commandline.getOptionValue("cutting-feedrate")));
+    }
+
+    if (commandline.hasOption("plunge-feedrate")) {
+      visolate.gCodeWriter.setPlungeFeedrate(Double.parseDouble(commandline.getOptionValue("plunge-feedrate")));
+    }
+
+    if (commandline.hasOption("dpi")) {
+      visolate.setDPI(Integer.parseInt(commandline.getOptionValue("dpi")));
+    }
+
+    if (commandline.hasOption("software-renderer")) {
+      visolate.setSoftwareRendering(true);
+    }
+
+    if (commandline.hasOption("voronoi-cones")) {
+      visolate.getSoftwareRenderer().setExactVoronoi(false);
+    }
+
+    if (commandline.hasOption("threads")) {
+      visolate.setNumThreads(Integer.parseInt(commandline.getOptionValue("threads")));
+    }
+
+    if (commandline.hasOption("optimize-tour")) {
+      visolate.setTourOptimizationTime(Long.parseLong(commandline.getOptionValue("optimize-tour")));
+    }
+
+    if (commandline.hasOption("arcs")) {
+      visolate.setFitArcs(true);
+    }
+
+    if (commandline.hasOption("outfile")) {
+      visolate.setGcodeFile(commandline.getOptionValue("outfile"));
+    }
   }
 
   private Visolate visolate;
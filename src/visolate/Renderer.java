@@ -0,0 +1,61 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+package visolate;
+
+import java.awt.image.*;
+
+/**
+ * A backend which can turn the current model geometry into tiles of
+ * pixels for the processors. The Display does this with Java3D on the
+ * graphics card, the SoftwareRenderer does it on the CPU.
+ */
+public interface Renderer {
+
+  public int getDPI();
+
+  public double getVirtualCanvasWidth();
+
+  public double getVirtualCanvasHeight();
+
+  public int getCanvasWidth();
+
+  public int getCanvasHeight();
+
+  public BufferedImage makeBufferedImage(int width, int height);
+
+  /**
+   * Whether renderTile() may be called from several threads at once.
+   */
+  public boolean isConcurrent();
+
+  /**
+   * Whether the voronoi regions are rendered from the cones and loops of
+   * the nets. If not, the nets don't have to make them.
+   */
+  public boolean needsVoronoiCones();
+
+  /**
+   * Renders one canvas sized tile centered at (x, y), in inches. The result
+   * is a TYPE_INT_RGB image of getCanvasWidth() x getCanvasHeight() pels.
+   */
+  public BufferedImage renderTile(double x, double y)
+    throws InterruptedException;
+}
@@ -0,0 +1,601 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+package visolate;
+
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.media.j3d.*;
+import javax.vecmath.*;
+
+import visolate.misc.*;
+import visolate.model.*;
+
+/**
+ * Renders the model on the CPU instead of through Java3D. It draws the
+ * same flat, cone and loop geometry the Display shows, with a z-buffer
+ * and the same blending, into a plain int[] RGB buffer. Each tile is
+ * split into horizontal bands which are rendered in parallel.
+ * <p>
+ * With exact voronoi enabled, the cones aren't drawn at all. Instead the
+ * flat copper is rendered into a padded tile and every pel gets the color
+ * of its nearest copper pel by a labelled euclidean distance transform.
+ */
+public class SoftwareRenderer implements Renderer {
+
+  public static final int DEF_TILE_SIZE = 1024;
+
+  public static final int BACKGROUND = 0xffffff;
+
+  public SoftwareRenderer(Visolate visolate) {
+    this.visolate = visolate;
+
+    dpi = Display.DEF_NATIVE_DPI;
+    tileWidth = DEF_TILE_SIZE;
+    tileHeight = DEF_TILE_SIZE;
+    numThreads = Runtime.getRuntime().availableProcessors();
+  }
+
+  public boolean isExactVoronoi() {
+    return exactVoronoi;
+  }
+
+  public void setExactVoronoi(boolean exactVoronoi) {
+    this.exactVoronoi = exactVoronoi;
+  }
+
+  public int getDPI() {
+    return dpi;
+  }
+
+  public void setDPI(int dpi) {
+    this.dpi = dpi;
+  }
+
+  public void setTileSize(int width, int height) {
+    tileWidth = width;
+    tileHeight = height;
+  }
+
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  public synchronized void setNumThreads(int numThreads) {
+
+    if (numThreads == this.numThreads)
+      return;
+
+    this.numThreads = numThreads;
+
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  public double getVirtualCanvasWidth() {
+    return ((double) tileWidth)/dpi;
+  }
+
+  public double getVirtualCanvasHeight() {
+    return ((double) tileHeight)/dpi;
+  }
+
+  public int getCanvasWidth() {
+    return tileWidth;
+  }
+
+  public int getCanvasHeight() {
+    return tileHeight;
+  }
+
+  public BufferedImage makeBufferedImage(int width, int height) {
+    return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+  }
+
+  public boolean isConcurrent() {
+    return true;
+  }
+
+  public boolean needsVoronoiCones() {
+    return !exactVoronoi;
+  }
+
+  public BufferedImage renderTile(double x, double y)
+    throws InterruptedException {
+
+    int width = tileWidth;
+    int height = tileHeight;
+
+    BufferedImage image = makeBufferedImage(width, height);
+
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    Arrays.fill(pixels, BACKGROUND);
+
+    float[] depth = new float[width*height];
+    Arrays.fill(depth, Float.NEGATIVE_INFINITY);
+
+    Model model = visolate.getModel();
+
+    double left = x - width/(2.0*dpi);
+    double top = y + height/(2.0*dpi);
+
+    Scene scene = new Scene(model, dpi, exactVoronoi);
+
+    if (scene.exactVoronoi)
+      drawVoronoi(scene, model, left, top, pixels, depth, width, height);
+
+    draw(scene, left, top, pixels, depth, width, height, true,
+         scene.opaque, scene.translucent);
+
+    return image;
+  }
+
+  private void draw(Scene scene, double left, double top,
+                    int[] pixels, float[] depth, int width, int height,
+                    boolean border, List<Layer> opaque, List<Layer> translucent)
+    throws InterruptedException {
+
+    int bandHeight = (height + numThreads - 1)/numThreads;
+
+    List<Callable<Object>> bands = new ArrayList<Callable<Object>>();
+
+    for (int y0 = 0; y0 < height; y0 += bandHeight) {
+      bands.add(new Band(scene, left, top, pixels, depth, width,
+                         y0, Math.min(height, y0 + bandHeight),
+                         border, opaque, translucent));
+    }
+
+    for (Future<Object> band : getExecutor().invokeAll(bands)) {
+      try {
+        band.get();
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+  }
+
+  /**
+   * The nearest copper may be up to one voronoi limit outside of the tile,
+   * so the copper is rendered with that much padding, as far as there is
+   * any model.
+   */
+  private void drawVoronoi(Scene scene, Model model, double left, double top,
+                           int[] pixels, float[] depth, int width, int height)
+    throws InterruptedException {
+
+    double limit = model.getVoronoiLimit()*dpi;
+    int pad = (int) Math.ceil(limit) + 1;
+
+    Rect b = model.getModelBounds();
+
+    int x0 = Math.min(0, Math.max(-pad, (int) Math.floor((b.x - left)*dpi) - 1));
+    int x1 = Math.max(width, Math.min(width + pad,
+                      (int) Math.ceil((b.x + b.width - left)*dpi) + 1));
+    int y0 = Math.min(0, Math.max(-pad, (int) Math.floor((top - b.y - b.height)*dpi) - 1));
+    int y1 = Math.max(height, Math.min(height + pad,
+                      (int) Math.ceil((top - b.y)*dpi) + 1));
+
+    int paddedWidth = x1 - x0;
+    int paddedHeight = y1 - y0;
+
+    int[] seeds = new int[paddedWidth*paddedHeight];
+    Arrays.fill(seeds, DistanceTransform.NONE);
+
+    float[] seedDepth = new float[paddedWidth*paddedHeight];
+    Arrays.fill(seedDepth, Float.NEGATIVE_INFINITY);
+
+    draw(scene, left + x0/((double) dpi), top - y0/((double) dpi),
+         seeds, seedDepth, paddedWidth, paddedHeight,
+         false, scene.seeds, Collections.<Layer>emptyList());
+
+    seedDepth = null;
+
+    int[] labels = DistanceTransform.label(seeds,
+                                           paddedWidth, paddedHeight,
+                                           -x0, -y0, width, height,
+                                           limit,
+                                           getExecutor(), numThreads);
+
+    for (int i = 0; i < labels.length; i++) {
+      if (labels[i] != DistanceTransform.NONE) {
+        pixels[i] = labels[i];
+        depth[i] = Net.CONE_Z_MAX;
+      }
+    }
+  }
+
+  private synchronized ExecutorService getExecutor() {
+
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "visolate software renderer");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    }
+
+    return executor;
+  }
+
+  public static int toInt(Color3b c) {
+    return ((c.x & 0xff) << 16) | ((c.y & 0xff) << 8) | (c.z & 0xff);
+  }
+
+  /**
+   * Everything a band needs to know about the model, collected once per
+   * tile so the bands don't have to talk to the model concurrently.
+   */
+  private static class Scene {
+
+    Scene(Model model, int dpi, boolean exactVoronoi) {
+
+      this.dpi = dpi;
+
+      flipXScale = model.getFlipXScale();
+      flipXOffset = model.getFlipXOffset();
+      flipYScale = model.getFlipYScale();
+      flipYOffset = model.getFlipYOffset();
+
+      border = model.isBorderGeometryEnabled();
+
+      if (border) {
+        boardBounds = model.getBoardBounds();
+        circular = model.isBorderCircular();
+        borderColor = toInt(model.getBorderColor());
+      }
+
+      boolean flat = model.isFlatGeometryEnabled();
+      boolean voronoi = model.isVoronoiGeometryEnabled();
+      boolean translucent = model.isTranslucent2D();
+
+      this.exactVoronoi = exactVoronoi && voronoi;
+
+      for (Net net : model.getNets()) {
+
+        int color = toInt(net.getColor());
+
+        if (this.exactVoronoi) {
+          // the copper itself is part of the voronoi regions
+          addLayer(seeds, net.getFlatGeometry(), color);
+        } else if (voronoi) {
+          addLayer(opaque, net.getConeGeometry(), color);
+          addLayer(opaque, net.getLoopGeometry(), color);
+        }
+
+        if (flat) {
+          if (translucent)
+            addLayer(this.translucent, net.getFlatGeometry(), color);
+          else if (!this.exactVoronoi)
+            addLayer(opaque, net.getFlatGeometry(), color);
+        }
+      }
+    }
+
+    private void addLayer(List<Layer> layers,
+                          GeometryArray geometry, int color) {
+
+      if (!(geometry instanceof GeometryStripArray))
+        return;
+
+      GeometryStripArray strips = (GeometryStripArray) geometry;
+
+      int[] counts = new int[strips.getNumStrips()];
+      strips.getStripVertexCounts(counts);
+
+      layers.add(new Layer(geometry.getCoordRefFloat(), counts,
+                           geometry instanceof TriangleFanArray, color));
+    }
+
+    final int dpi;
+
+    final double flipXScale;
+    final double flipXOffset;
+    final double flipYScale;
+    final double flipYOffset;
+
+    final boolean exactVoronoi;
+
+    boolean border;
+    Rect boardBounds;
+    boolean circular;
+    int borderColor;
+
+    final List<Layer> opaque = new ArrayList<Layer>();
+    final List<Layer> translucent = new ArrayList<Layer>();
+    final List<Layer> seeds = new ArrayList<Layer>();
+  }
+
+  private static class Layer {
+
+    Layer(float[] coords, int[] counts, boolean fan, int color) {
+      this.coords = coords;
+      this.counts = counts;
+      this.fan = fan;
+      this.color = color;
+    }
+
+    final float[] coords;
+    final int[] counts;
+    final boolean fan;
+    final int color;
+  }
+
+  private static class Band implements Callable<Object> {
+
+    Band(Scene scene, double left, double top,
+         int[] pixels, float[] depth, int width, int y0, int y1,
+         boolean border, List<Layer> opaque, List<Layer> translucent) {
+
+      this.scene = scene;
+      this.left = left;
+      this.top = top;
+      this.pixels = pixels;
+      this.depth = depth;
+      this.width = width;
+      this.y0 = y0;
+      this.y1 = y1;
+      this.border = border;
+      this.opaque = opaque;
+      this.translucent = translucent;
+
+      // pel = a*model + b, including the flip the Display applies
+      ax = scene.dpi*scene.flipXScale;
+      bx = scene.dpi*(scene.flipXOffset - left);
+      ay = -scene.dpi*scene.flipYScale;
+      by = scene.dpi*(top - scene.flipYOffset);
+    }
+
+    public Object call() {
+
+      if (border && scene.border)
+        drawBorder();
+
+      for (Layer layer : opaque) {
+
+        drawLayer(layer, false);
+
+        if (Thread.currentThread().isInterrupted())
+          return null;
+      }
+
+      // Java3D draws transparent geometry after the opaque one and without
+      // writing the depth buffer, so do we.
+      for (Layer layer : translucent) {
+
+        drawLayer(layer, true);
+
+        if (Thread.currentThread().isInterrupted())
+          return null;
+      }
+
+      return null;
+    }
+
+    private void drawBorder() {
+
+      Rect b = scene.boardBounds;
+
+      double cx = b.x + b.width/2.0;
+      double cy = b.y + b.height/2.0;
+      double r = Math.max(b.width, b.height)/2.0;
+
+      for (int y = y0; y < y1; y++) {
+
+        double my = top - (y + 0.5)/scene.dpi;
+
+        for (int x = 0; x < width; x++) {
+
+          double mx = left + (x + 0.5)/scene.dpi;
+
+          boolean inside;
+
+          if (scene.circular)
+            inside = ((mx-cx)*(mx-cx) + (my-cy)*(my-cy)) <= r*r;
+          else
+            inside = (mx >= b.x) && (mx <= b.x + b.width) &&
+              (my >= b.y) && (my <= b.y + b.height);
+
+          if (!inside) {
+            int i = y*width + x;
+            pixels[i] = scene.borderColor;
+            depth[i] = Net.OUTLINE_Z;
+          }
+        }
+      }
+    }
+
+    private void drawLayer(Layer layer, boolean blend) {
+
+      float[] c = layer.coords;
+      int v = 0;
+
+      for (int s = 0; s < layer.counts.length; s++) {
+
+        int n = layer.counts[s];
+
+        if ((n >= 3) && overlaps(c, v, n)) {
+          if (layer.fan) {
+            for (int i = 1; i < n-1; i++)
+              drawTriangle(c, v, v+i, v+i+1, layer.color, blend);
+          } else {
+            for (int i = 0; i < n-2; i++)
+              drawTriangle(c, v+i, v+i+1, v+i+2, layer.color, blend);
+          }
+        }
+
+        v += n;
+      }
+    }
+
+    private boolean overlaps(float[] c, int v, int n) {
+
+      double minX = Double.POSITIVE_INFINITY;
+      double maxX = Double.NEGATIVE_INFINITY;
+      double minY = Double.POSITIVE_INFINITY;
+      double maxY = Double.NEGATIVE_INFINITY;
+
+      for (int i = v; i < v+n; i++) {
+
+        double x = ax*c[3*i] + bx;
+        double y = ay*c[3*i+1] + by;
+
+        if (x < minX) minX = x;
+        if (x > maxX) maxX = x;
+        if (y < minY) minY = y;
+        if (y > maxY) maxY = y;
+      }
+
+      return (maxX >= 0.0) && (minX <= width) && (maxY >= y0) && (minY <= y1);
+    }
+
+    private void drawTriangle(float[] c, int i0, int i1, int i2,
+                              int color, boolean blend) {
+
+      double x0 = ax*c[3*i0] + bx;
+      double y0 = ay*c[3*i0+1] + by;
+      float z0 = c[3*i0+2];
+
+      double x1 = ax*c[3*i1] + bx;
+      double y1 = ay*c[3*i1+1] + by;
+      float z1 = c[3*i1+2];
+
+      double x2 = ax*c[3*i2] + bx;
+      double y2 = ay*c[3*i2+1] + by;
+      float z2 = c[3*i2+2];
+
+      double area = (x1-x0)*(y2-y0) - (y1-y0)*(x2-x0);
+
+      if (area == 0.0)
+        return;
+
+      if (area < 0.0) {
+        double tx = x1; x1 = x2; x2 = tx;
+        double ty = y1; y1 = y2; y2 = ty;
+        float tz = z1; z1 = z2; z2 = tz;
+        area = -area;
+      }
+
+      // sample at pel centers
+      int minX = Math.max(0, (int) Math.ceil(min(x0, x1, x2) - 0.5));
+      int maxX = Math.min(width-1, (int) Math.floor(max(x0, x1, x2) - 0.5));
+      int minY = Math.max(this.y0, (int) Math.ceil(min(y0, y1, y2) - 0.5));
+      int maxY = Math.min(this.y1-1, (int) Math.floor(max(y0, y1, y2) - 0.5));
+
+      if ((minX > maxX) || (minY > maxY))
+        return;
+
+      // edge functions, each one is zero on the edge opposite its vertex
+      double a0 = y1-y2, b0 = x2-x1, c0 = -(a0*x1 + b0*y1);
+      double a1 = y2-y0, b1 = x0-x2, c1 = -(a1*x2 + b1*y2);
+      double a2 = y0-y1, b2 = x1-x0, c2 = -(a2*x0 + b2*y0);
+
+      // pels exactly on an edge shared by two triangles go to one of them only
+      boolean t0 = owns(b0, -a0);
+      boolean t1 = owns(b1, -a1);
+      boolean t2 = owns(b2, -a2);
+
+      double invArea = 1.0/area;
+
+      for (int y = minY; y <= maxY; y++) {
+
+        double sx = minX + 0.5;
+        double sy = y + 0.5;
+
+        double w0 = a0*sx + b0*sy + c0;
+        double w1 = a1*sx + b1*sy + c1;
+        double w2 = a2*sx + b2*sy + c2;
+
+        int i = y*width + minX;
+
+        for (int x = minX; x <= maxX; x++, i++) {
+
+          if (((w0 > 0.0) || ((w0 == 0.0) && t0)) &&
+              ((w1 > 0.0) || ((w1 == 0.0) && t1)) &&
+              ((w2 > 0.0) || ((w2 == 0.0) && t2))) {
+
+            float z = (float) ((w0*z0 + w1*z1 + w2*z2)*invArea);
+
+            if (z > depth[i]) {
+              if (blend) {
+                pixels[i] = ((pixels[i] & 0xfefefe) >> 1) + ((color & 0xfefefe) >> 1);
+              } else {
+                pixels[i] = color;
+                depth[i] = z;
+              }
+            }
+          }
+
+          w0 += a0;
+          w1 += a1;
+          w2 += a2;
+        }
+      }
+    }
+
+    private static boolean owns(double dx, double dy) {
+      return (dy > 0.0) || ((dy == 0.0) && (dx > 0.0));
+    }
+
+    private static double min(double a, double b, double c) {
+      return Math.min(a, Math.min(b, c));
+    }
+
+    private static double max(double a, double b, double c) {
+      return Math.max(a, Math.max(b, c));
+    }
+
+    private final Scene scene;
+    private final double left;
+    private final double top;
+    private final int[] pixels;
+    private final float[] depth;
+    private final int width;
+    private final int y0;
+    private final int y1;
+
+    private final boolean border;
+    private final List<Layer> opaque;
+    private final List<Layer> translucent;
+
+    private final double ax;
+    private final double bx;
+    private final double ay;
+    private final double by;
+  }
+
+  private Visolate visolate;
+
+  private int dpi;
+
+  private int tileWidth;
+  private int tileHeight;
+
+  private int numThreads;
+
+  private boolean exactVoronoi = true;
+
+  private ExecutorService executor = null;
+}
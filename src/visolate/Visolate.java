@@ -25,6 +25,8 @@ import visolate.simulator.*;
 import visolate.model.*;
 import visolate.processor.*;
 
+import javax.vecmath.Color3b;
+
 import java.io.*;
 import java.text.NumberFormat;
 import java.text.ParseException;
@@ -61,9 +63,19 @@ public class Visolate extends JPanel implements SimulatorUI {
 	}
 
 	public Visolate(File file) {
+		this(file, false);
+	}
+
+	/**
+	 * A headless Visolate has no Display and thus no Java3D universe at all.
+	 * Processing is done with the SoftwareRenderer, see runBatch().
+	 */
+	public Visolate(File file, boolean headless) {
 
 		processstatus=0;
-		display = new Display(this);
+		if (!headless)
+			display = new Display(this);
+		softwareRenderer = new SoftwareRenderer(this);
 		simulator = new Simulator(this);
 		model = new Model(this);
 		// TODO: get a toolpathsProcessor here, too, and get rid of myToolpathsProcessor.
@@ -81,7 +93,8 @@ public class Visolate extends JPanel implements SimulatorUI {
 		Box box = Box.createVerticalBox();
 
 		box.add(getLoadFileBox());
-		box.add(display);
+		if (display != null)
+			box.add(display);
 		box.add(model);
 		box.add(getGCodeOptionsBox());
 		box.add(processingBox);
@@ -102,7 +115,8 @@ public class Visolate extends JPanel implements SimulatorUI {
 		d = processingBox.getPreferredSize();
 		processingBox.setMaximumSize(new Dimension(Integer.MAX_VALUE, d.height));
 
-		display.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
+		if (display != null)
+			display.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
 		setPreferredSize(orig);
 
 		if (file != null)
@@ -212,9 +226,21 @@ public class Visolate extends JPanel implements SimulatorUI {
 		topologyAndToolpathsBox.add(getTopologyBox());
 		topologyAndToolpathsBox.add(Box.createHorizontalGlue());
 		topologyAndToolpathsBox.add(getToolpathBox());
+		topologyAndToolpathsBox.add(Box.createHorizontalGlue());
+		topologyAndToolpathsBox.add(getSoftwareRendererButton());
 		return topologyAndToolpathsBox;
 	}
 
+	private JCheckBox getSoftwareRendererButton() {
+		if (softwareRendererButton == null) {
+			softwareRendererButton = new JCheckBox("software rendering");
+			softwareRendererButton.setBackground(Color.WHITE);
+			softwareRendererButton.setToolTipText("Render tiles for processing on the CPU instead of reading them back from the graphics card.");
+			softwareRendererButton.setSelected(false);
+		}
+		return softwareRendererButton;
+	}
+
 	private Box getToolpathBox() {
 		Dimension d;
 		Box toolpathsBox = Box.createHorizontalBox();
@@ -617,17 +643,54 @@ public class Visolate extends JPanel implements SimulatorUI {
 	}
 
 	private void computeToolpaths() {
+		myToolpathsProcessor = new ToolpathsProcessor(this, getToolpathsMode());
+		startProcess(myToolpathsProcessor);
+	}
 
-		int mode = -1;
-
+	private int getToolpathsMode() {
 		if (voronoiButton.isSelected())
-			mode = ToolpathsProcessor.VORONOI_MODE;
+			return ToolpathsProcessor.VORONOI_MODE;
 		else
-			mode = ToolpathsProcessor.OUTLINE_MODE;
+			return ToolpathsProcessor.OUTLINE_MODE;
+	}
 
-		myToolpathsProcessor = new ToolpathsProcessor(this, mode);
+	public void setVoronoiMode(boolean voronoi) {
+		if (voronoi)
+			voronoiButton.setSelected(true);
+		else
+			outlineButton.setSelected(true);
+	}
 
-		startProcess(myToolpathsProcessor);
+	/**
+	 * Computes the toolpaths of the loaded file and writes the G-code, all
+	 * on the calling thread. This is what --auto does, without waiting for
+	 * the process callbacks on the event dispatch thread. Overlapping nets
+	 * were already connected when the model was built.
+	 *
+	 * @return whether the G-code was written
+	 */
+	public boolean runBatch() {
+
+		auto_mode = true;
+
+		System.out.println("Computing toolpaths.");
+		myToolpathsProcessor = new ToolpathsProcessor(this, getToolpathsMode());
+		myToolpathsProcessor.run();
+
+		if (gcodeStream != null) {
+			System.out.println("Writing gcode to standard output.");
+			return saveGCode(gcodeStream);
+		} else {
+			System.out.println("Writing to gcode file: " + gcodeField.getText().trim());
+			return saveGCode();
+		}
+	}
+
+	/**
+	 * Makes runBatch() write the G-code to a stream instead of the gcode file.
+	 */
+	public void setGCodeStream(OutputStream stream) {
+		gcodeStream = stream;
 	}
 
 	private File browse() {
@@ -654,17 +717,28 @@ public class Visolate extends JPanel implements SimulatorUI {
 	}
 
 	private void accessControlError() {
-		JOptionPane.
-		showMessageDialog(this,
+		showError(
 				"Cannot load or save from an applet.  You must " +
 				"either change your browser's security policy or " +
 				"download the application and run it directly.",
-				"Access Denied",
-				JOptionPane.ERROR_MESSAGE);
+				"Access Denied");
+	}
+
+	/**
+	 * Shows an error dialog, or prints the message if there is no screen.
+	 */
+	private void showError(String message, String title) {
+		if (isHeadless()) {
+			System.err.println(title + ": " + message);
+			return;
+		}
+		JOptionPane.
+		showMessageDialog(this, message, title, JOptionPane.ERROR_MESSAGE);
 	}
 
 	public void destroy() {
-		display.destroy();
+		if (display != null)
+			display.destroy();
 	}
 
 	public void loadFile() {
@@ -680,34 +754,32 @@ public class Visolate extends JPanel implements SimulatorUI {
 		try {
 			load(url.openStream());
 		} catch (IOException e) {
-			JOptionPane.
-			showMessageDialog(this,
-					"I/O Error: " + e.getMessage(),
-					"I/O Error",
-					JOptionPane.ERROR_MESSAGE);
+			showError("I/O Error: " + e.getMessage(), "I/O Error");
 		}
 	}
 
-	public void loadFile(File file) {
+	/**
+	 * @return whether the file was read completely. Whatever was read is
+	 * loaded anyway, the demo file if the file wasn't found.
+	 */
+	public boolean loadFile(File file) {
 
 		currentFile = file;
 		loadField.setText(file.toString());
 		setGcodeFile(file.toString()+".ngc");
 
 		try {
-			load(new FileInputStream(file));
+			return load(new FileInputStream(file));
 		} catch (FileNotFoundException e) {
 		  loadDemo();
-			JOptionPane.
-			showMessageDialog(this,
-					"File Not Found: " + e.getMessage() +
+			showError("File Not Found: " + e.getMessage() +
 					"\nLoaded Demo file instead.",
-					"File Not Found",
-					JOptionPane.ERROR_MESSAGE);
+					"File Not Found");
+			return false;
 		}
 	}
 
-	private void load(InputStream inputStream) {
+	private boolean load(InputStream inputStream) {
 
 		stopProcess();
 
@@ -716,36 +788,42 @@ public class Visolate extends JPanel implements SimulatorUI {
 
 		simulator.reset();
 
+		boolean ok = false;
+
 		try {
-			Parser parser = new Parser(inputStream);
-			parser.setSimulator(simulator);
-			parser.Input();
+			new GerberReader(simulator).read(inputStream);
+			ok = true;
 		} catch (visolate.parser.ParseException e) {
-			JOptionPane.
-			showMessageDialog(this,
-					"Parse Error: " + e.getMessage(),
-					"Parse Error",
-					JOptionPane.ERROR_MESSAGE);
+			showError("Parse Error: " + e.getMessage(), "Parse Error");
+		} catch (visolate.parser.TokenMgrError e) {
+			showError("Parse Error: " + e.getMessage(), "Parse Error");
+		} catch (IOException e) {
+			showError("I/O Error: " + e.getMessage(), "I/O Error");
 		}
 
 		model.rebuild();
 		enableControls(true);
+
+		return ok;
 	}
 
 	public void setGcodeFile(String filename) {
 		gcodeField.setText(filename);
 	}
 
-	public void saveGCode() {
-		saveGCode(new File(gcodeField.getText().trim()));
+	public boolean saveGCode() {
+		return saveGCode(new File(gcodeField.getText().trim()));
 	}
 
-	public void saveGCode(final File file) {
+	/**
+	 * @return whether the G-code was written
+	 */
+	public boolean saveGCode(final File file) {
 
 		gcodeField.setText(file.toString());
 
 		if (myToolpathsProcessor == null) {
-			return;
+			return false;
 		}
 
 		try {
@@ -757,7 +835,7 @@ public class Visolate extends JPanel implements SimulatorUI {
 						"Overwrite?",
 						JOptionPane.YES_NO_OPTION);
 				if (yesno != JOptionPane.YES_OPTION) {					
-					return;
+					return false;
 				}
 			}
 
@@ -765,12 +843,11 @@ public class Visolate extends JPanel implements SimulatorUI {
 				gCodeWriter.open(file);
 				myToolpathsProcessor.writeGCode(gCodeWriter);
 				gCodeWriter.close();
+				return true;
 			} catch (IOException e) {
-				JOptionPane.
-				showMessageDialog(this,
-						"I/O Error writing G-Code: " + e.getMessage(),
-						"I/O Error",
-						JOptionPane.ERROR_MESSAGE);
+				showError("I/O Error writing G-Code: " + e.getMessage(),
+						"I/O Error");
+				return false;
 			}
 
 		} catch (AccessControlException e1) {
@@ -782,6 +859,32 @@ public class Visolate extends JPanel implements SimulatorUI {
 			} catch (IOException e2) {
 				//nope
 			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the G-code to a stream, which is flushed after each path but
+	 * left open.
+	 *
+	 * @return whether the G-code was written
+	 */
+	public boolean saveGCode(final OutputStream stream) {
+
+		if (myToolpathsProcessor == null) {
+			return false;
+		}
+
+		try {
+			gCodeWriter.open(stream);
+			myToolpathsProcessor.writeGCode(gCodeWriter, true);
+			gCodeWriter.flush();
+			return true;
+		} catch (IOException e) {
+			showError("I/O Error writing G-Code: " + e.getMessage(),
+					"I/O Error");
+			return false;
 		}
 	}
 
@@ -901,6 +1004,11 @@ public class Visolate extends JPanel implements SimulatorUI {
 	}
 
 	public boolean askContinue(int line, int seq) {
+		if (isHeadless()) {
+			System.err.println("Continuing after line " + line +
+					((seq >= 0) ? (" (sequence number " + seq + ")") : ""));
+			return true;
+		}
 		return
 		JOptionPane.
 		showConfirmDialog(this,
@@ -923,6 +1031,99 @@ public class Visolate extends JPanel implements SimulatorUI {
 		return display;
 	}
 
+	/**
+	 * The backend the processors render their tiles with. The software
+	 * renderer follows the DPI set in the display.
+	 */
+	public Renderer getRenderer() {
+
+		if (display == null)
+			return softwareRenderer;
+
+		if (!getSoftwareRendererButton().isSelected())
+			return display;
+
+		softwareRenderer.setDPI(display.getDPI());
+
+		return softwareRenderer;
+	}
+
+	public boolean isHeadless() {
+		return display == null;
+	}
+
+	public void setDPI(int dpi) {
+		if (display != null)
+			display.setDPI(dpi);
+		else
+			softwareRenderer.setDPI(dpi);
+	}
+
+	public Color3b getRandomColor() {
+		if (display != null)
+			return display.getRandomColor();
+		return Display.getRandomColor(256, 256, 256);
+	}
+
+	/**
+	 * @return the colors nets are drawn in, as many as the frame buffer can
+	 * tell apart
+	 */
+	public NetColors getNetColors() {
+
+		if (netColors == null) {
+			if (display != null)
+				netColors = new NetColors(display.getRBits(), display.getGBits(), display.getBBits());
+			else
+				netColors = new NetColors(8, 8, 8);
+		}
+
+		return netColors;
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * How many tiles the processors work on at once, if the renderer allows.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public long getTourOptimizationTime() {
+		return tourOptimizationTime;
+	}
+
+	/**
+	 * How long to spend shortening the rapid moves between paths when
+	 * writing G-code, in milliseconds. 0 keeps the nearest neighbor order.
+	 */
+	public void setTourOptimizationTime(long millis) {
+		tourOptimizationTime = Math.max(0, millis);
+	}
+
+	public boolean getFitArcs() {
+		return fitArcs;
+	}
+
+	/**
+	 * Whether to write runs of toolpath nodes lying on a circle as G2/G3
+	 * arcs instead of many short G1 lines.
+	 */
+	public void setFitArcs(boolean fitArcs) {
+		this.fitArcs = fitArcs;
+	}
+
+	public SoftwareRenderer getSoftwareRenderer() {
+		return softwareRenderer;
+	}
+
+	public void setSoftwareRendering(boolean enable) {
+		getSoftwareRendererButton().setSelected(enable);
+	}
+
 	public void enableControls(boolean enable) {
 
 		if (enable == true &&
@@ -948,6 +1149,8 @@ public class Visolate extends JPanel implements SimulatorUI {
 		voronoiButton.setEnabled(enable);
 		outlineButton.setEnabled(enable);
 
+		getSoftwareRendererButton().setEnabled(enable);
+
 		if (myToolpathsProcessor != null) {
 			gcodeButton.setEnabled(enable);
 			gcodeField.setEnabled(enable);
@@ -961,7 +1164,7 @@ public class Visolate extends JPanel implements SimulatorUI {
 		progressBar.setValue(0);
 	}
 
-	public void tickProgressBar() {
+	public synchronized void tickProgressBar() {
 		progressBar.setValue(progressBar.getValue()+1);
 	}
 
@@ -1051,9 +1254,15 @@ public class Visolate extends JPanel implements SimulatorUI {
 	private Simulator simulator = null;
 	public Model model = null;
 	private Display display = null;
+	private SoftwareRenderer softwareRenderer = null;
+	private NetColors netColors = null;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private long tourOptimizationTime = 0;
+	private boolean fitArcs = false;
 	private Processor processor = null;
 	private ToolpathsProcessor myToolpathsProcessor = null;
 	public GCodeFileWriter gCodeWriter = null;
+	private OutputStream gcodeStream = null;
 
 	private JButton loadButton;
 	private JTextField loadField;
@@ -1078,6 +1287,8 @@ public class Visolate extends JPanel implements SimulatorUI {
 	private JRadioButton voronoiButton;
 	private JRadioButton outlineButton;
 
+	private JCheckBox softwareRendererButton;
+
 	private JButton gcodeButton;
 	private JTextField gcodeField;
 	private JButton gcodeBrowseButton;
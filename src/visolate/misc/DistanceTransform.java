@@ -0,0 +1,233 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+package visolate.misc;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Labelled exact Euclidean distance transform after Felzenszwalb and
+ * Huttenlocher: every pel gets the label of its nearest seed pel. First
+ * each column finds its nearest seed row, then each row takes the lower
+ * envelope of the resulting parabolas. Both passes are linear in the number
+ * of pels and run on the given executor, columns and rows in chunks.
+ */
+public class DistanceTransform {
+
+  public static final int NONE = -1;
+
+  /**
+   * Labels the window (wx, wy, ww, wh) of a width x height seed image.
+   * Seeds are pels with a label other than NONE. Pels farther away than
+   * maxDistance pels from any seed get NONE.
+   *
+   * @return ww x wh labels, row by row
+   */
+  public static int[] label(final int[] seeds,
+                            final int width, final int height,
+                            final int wx, final int wy,
+                            final int ww, final int wh,
+                            final double maxDistance,
+                            ExecutorService executor, int numChunks)
+    throws InterruptedException {
+
+    // the nearest seed row for every column in every window row
+    final int[] nearest = new int[width*wh];
+    final int[] labels = new int[ww*wh];
+
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+    int chunk = (width + numChunks - 1)/numChunks;
+
+    for (int x0 = 0; x0 < width; x0 += chunk) {
+
+      final int from = x0;
+      final int to = Math.min(width, x0 + chunk);
+
+      tasks.add(new Callable<Object>() {
+          public Object call() {
+            for (int x = from; x < to; x++) {
+
+              if (Thread.currentThread().isInterrupted())
+                return null;
+
+              scanColumn(seeds, width, height, x, wy, wh, nearest);
+            }
+            return null;
+          }
+        });
+    }
+
+    run(executor, tasks);
+
+    tasks.clear();
+
+    chunk = (wh + numChunks - 1)/numChunks;
+
+    final double maxSquared = maxDistance*maxDistance;
+
+    for (int y0 = 0; y0 < wh; y0 += chunk) {
+
+      final int from = y0;
+      final int to = Math.min(wh, y0 + chunk);
+
+      tasks.add(new Callable<Object>() {
+          public Object call() {
+
+            double[] f = new double[width];
+            int[] v = new int[width];
+            double[] z = new double[width+1];
+
+            for (int y = from; y < to; y++) {
+
+              if (Thread.currentThread().isInterrupted())
+                return null;
+
+              scanRow(seeds, width, wx, wy, ww, y, maxSquared,
+                      nearest, labels, f, v, z);
+            }
+            return null;
+          }
+        });
+    }
+
+    run(executor, tasks);
+
+    return labels;
+  }
+
+  private static void run(ExecutorService executor,
+                          List<Callable<Object>> tasks)
+    throws InterruptedException {
+
+    for (Future<Object> task : executor.invokeAll(tasks)) {
+      try {
+        task.get();
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+
+    if (Thread.currentThread().isInterrupted())
+      throw new InterruptedException();
+  }
+
+  private static void scanColumn(int[] seeds, int width, int height,
+                                 int x, int wy, int wh, int[] nearest) {
+
+    int last = -1;
+
+    for (int y = 0; y < wy + wh; y++) {
+
+      if (seeds[y*width + x] != NONE)
+        last = y;
+
+      if (y >= wy)
+        nearest[(y-wy)*width + x] = last;
+    }
+
+    int next = -1;
+
+    for (int y = height-1; y >= wy; y--) {
+
+      if (seeds[y*width + x] != NONE)
+        next = y;
+
+      if ((next >= 0) && (y < wy + wh)) {
+
+        int i = (y-wy)*width + x;
+        int prev = nearest[i];
+
+        if ((prev < 0) || (next - y < y - prev))
+          nearest[i] = next;
+      }
+    }
+  }
+
+  private static void scanRow(int[] seeds, int width,
+                              int wx, int wy, int ww, int y,
+                              double maxSquared,
+                              int[] nearest, int[] labels,
+                              double[] f, int[] v, double[] z) {
+
+    int row = y*width;
+    int absY = wy + y;
+
+    // lower envelope of the parabolas (x-q)^2 + f(q) of all columns q
+    // which have a seed at all
+    int k = -1;
+
+    for (int q = 0; q < width; q++) {
+
+      int n = nearest[row + q];
+
+      if (n < 0)
+        continue;
+
+      f[q] = (double) (absY-n)*(absY-n);
+
+      double s = Double.NEGATIVE_INFINITY;
+
+      while (k >= 0) {
+
+        int p = v[k];
+
+        s = ((f[q] + (double) q*q) - (f[p] + (double) p*p))/(2.0*(q-p));
+
+        if (s > z[k])
+          break;
+
+        k--;
+      }
+
+      if (k < 0)
+        s = Double.NEGATIVE_INFINITY;
+
+      k++;
+      v[k] = q;
+      z[k] = s;
+      z[k+1] = Double.POSITIVE_INFINITY;
+    }
+
+    int out = y*ww;
+
+    if (k < 0) {
+      Arrays.fill(labels, out, out + ww, NONE);
+      return;
+    }
+
+    int j = 0;
+
+    for (int x = wx; x < wx + ww; x++) {
+
+      while (z[j+1] < x)
+        j++;
+
+      int q = v[j];
+      double d = (double) (x-q)*(x-q) + f[q];
+
+      if (d <= maxSquared)
+        labels[out + x - wx] = seeds[nearest[row + q]*width + q];
+      else
+        labels[out + x - wx] = NONE;
+    }
+  }
+}
@@ -28,7 +28,6 @@ import visolate.*;
 
 import javax.media.j3d.*;
 import javax.vecmath.*;
-import com.sun.j3d.utils.picking.*;
 import com.sun.j3d.utils.geometry.GeometryInfo;
 
 import java.util.*;
@@ -48,8 +47,6 @@ public class Model extends JPanel {
 
 	public static final int NUM_CIRCLE_SEGMENTS = 256;
 
-	public static final Vector3d PICK_Z = new Vector3d(0.0, 0.0, -1.0);
-
 	public static final boolean DEF_OUTLINE = true;
 	public static final boolean DEF_OUTLINE_CIRCULAR = false;
 	public static final boolean DEF_OUTLINE_WHITE = true;
@@ -285,7 +282,6 @@ public class Model extends JPanel {
 		bounds = null;
 
 		nets.clear();
-		colorToNet.clear();
 		clearPaths();
 
 		Simulator simulator = visolate.getSimulator();
@@ -303,20 +299,30 @@ public class Model extends JPanel {
 		}
 		System.out.println(num + " loops");
 
+		netsByIndex = new Net[nets.size()];
 		for (Net net : nets) {
-			int c = color3bToInt(net.getColor());
-			//      System.out.println(net.getColor() + " -> " + colorToString(c));
-			colorToNet.put(new Integer(c), net);
+			netsByIndex[net.getIndex()] = net;
 		}
 
+		System.out.println("connecting overlapping nets...");
+		// the copper itself has to overlap, not the copper grown by the tool
+		for (Net net : nets) {
+			net.setOffset(0.0);
+		}
+		NetUnion union = new NetUnion(nets);
+		new NetIndex(nets).connect(union);
+		System.out.println(union.apply() + " super nets");
+
 		rebuildGeometry();
 	}
 
 	private void rebuildGeometry() {
 
+		netIndex = null;
+
 		for (Net net : nets) {
 			net.enableLineGeometry(lineGeometry);
-			net.enableVoronoiGeometry(voronoiGeometry);
+			net.enableVoronoiGeometry(voronoiGeometry && voronoiCones);
 			net.enableFlatGeometry(flatGeometry);
 
 			net.setTranslucent2D(translucent2D);
@@ -327,6 +333,8 @@ public class Model extends JPanel {
 
 		bounds = null;
 
+		borderColor = null;
+
 		if (borderBG != null) {
 			boolean borderGeometryWas = borderGeometry;
 			enableBorderGeometry(false);
@@ -351,6 +359,21 @@ public class Model extends JPanel {
 		return toolDiameter;
 	}
 
+	/**
+	 * Tessellates arcs for rendering at dpi.
+	 */
+	public void setArcDPI(int dpi) {
+
+		if (!visolate.getSimulator().setArcTolerance(Arc.getTolerance(dpi)))
+			return;
+
+		netIndex = null;
+
+		for (Net net : nets) {
+			net.arcsChanged();
+		}
+	}
+
 	public void setToolDiameter(double toolDiameter) {
 
 		if (toolDiameter == this.toolDiameter)
@@ -361,6 +384,10 @@ public class Model extends JPanel {
 		rebuildGeometry();
 	}
 
+	public double getVoronoiLimit() {
+		return voronoiLimit;
+	}
+
 	public void deleteNet(final Net net) {
 
 		if (nets.remove(net)) {
@@ -413,7 +440,7 @@ public class Model extends JPanel {
 
 		while (!strokes.isEmpty()) {
 
-			Net net = new Net(visolate);
+			Net net = new Net(visolate, nets.size());
 
 			List<Stroke> neighbors = new LinkedList<Stroke>();
 
@@ -448,7 +475,7 @@ public class Model extends JPanel {
 		//some nets may consist entirely of one or more flashes at a single loc
 		while (!flashes.isEmpty()) {
 
-			Net net = new Net(visolate);
+			Net net = new Net(visolate, nets.size());
 
 			Flash flash = (Flash) (flashes.iterator()).next();
 
@@ -457,10 +484,16 @@ public class Model extends JPanel {
 			nets.add(net);
 		}
 
-//		int i = 0;
+		NetColors colors = visolate.getNetColors();
+
 		int n = nets.size();
+		if (n > colors.getCapacity()) {
+			System.out.println("WARNING: " + n + " nets, but only " +
+					colors.getCapacity() + " colors to tell them apart");
+		}
+
 		for (Net net : nets) {
-			net.setColor(visolate.getDisplay().getRandomColor());
+			net.setColor(colors.getColor(net.getIndex()));
 		}
 
 		return n;
@@ -512,50 +545,53 @@ public class Model extends JPanel {
 		return i;
 	}
 
-	public Set<Integer> getNetColors() {
-		return colorToNet.keySet();
+	/**
+	 * @return the colors the nets had when they were made
+	 */
+	public int[] getNetColors() {
+
+		int[] colors = new int[netsByIndex.length];
+
+		for (int i = 0; i < netsByIndex.length; i++) {
+			colors[i] = color3bToInt(visolate.getNetColors().getColor(i));
+		}
+
+		return colors;
 	}
 
+	/**
+	 * @return the net drawn in color, by the index the color encodes
+	 */
 	public Net getNet(int color) {
-		return (Net) colorToNet.get(new Integer(color));
+
+		int index = visolate.getNetColors().getIndex(color);
+
+		if ((index < 0) || (index >= netsByIndex.length))
+			return null;
+
+		return netsByIndex[index];
 	}
 
 	public Collection<Net> getNets() {
 		return nets;
 	}
 
+	/**
+	 * Adds the nets with copper within radius of (x, y) to nets, as they
+	 * are at the current tool diameter.
+	 */
 	public Collection<Net> getNetsAtPoint(double x, double y,
 			double radius,
 			Collection<Net> nets) {
+		return getNetIndex().getNetsAtPoint(x, y, radius, nets);
+	}
 
-		PickTool pickTool = new PickTool(getSceneGraph());
-		pickTool.setMode(PickTool.BOUNDS);
-		pickTool.setShapeCylinderRay(new Point3d(x, y, Display.EYE.z),
-				PICK_Z,
-				radius);
-
-		PickResult[] result = pickTool.pickAll();
-
-		if (result == null) {
-			return nets;
-		}
-
-		for (int i = 0; i < result.length; i++) {
-			result[i].setFirstIntersectOnly(true);
-
-			if (result[i].numIntersections() > 0) {
-				Net net = (Net) (result[i].
-						getSceneGraphPath().
-						getObject().
-						getUserData());
+	private synchronized NetIndex getNetIndex() {
 
-				if (net != null) {
-					nets.add(net);
-				}
-			}
-		}
+		if (netIndex == null)
+			netIndex = new NetIndex(nets);
 
-		return nets;
+		return netIndex;
 	}
 
 	public BranchGroup getSceneGraph() {
@@ -697,11 +733,7 @@ public class Model extends JPanel {
 		Appearance appearance = new Appearance();
 
 		ColoringAttributes coloringAttributes = new ColoringAttributes();
-		if (whiteButton.isSelected())
-			coloringAttributes.setColor(new Color3f(1.0f, 1.0f, 1.0f));
-		else
-			coloringAttributes.setColor(Net.toColor3f(visolate.getDisplay().
-					getRandomColor()));
+		coloringAttributes.setColor(Net.toColor3f(getBorderColor()));
 		appearance.setColoringAttributes(coloringAttributes);
 
 		PolygonAttributes polygonAttributes = new PolygonAttributes();
@@ -721,6 +753,21 @@ public class Model extends JPanel {
 		return bg;
 	}
 
+	public boolean isBorderCircular() {
+		return circularButton.isSelected();
+	}
+
+	public Color3b getBorderColor() {
+
+		if (whiteButton.isSelected())
+			return new Color3b((byte) 0xff, (byte) 0xff, (byte) 0xff);
+
+		if (borderColor == null)
+			borderColor = visolate.getNetColors().getBorderColor();
+
+		return borderColor;
+	}
+
 	public void setPaths(BranchGroup pathBG) {
 		pathsBG.removeAllChildren();
 		pathsBG.addChild(pathBG);
@@ -856,7 +903,24 @@ public class Model extends JPanel {
 		voronoiGeometry = enable;
 
 		for (Net net : nets) {
-			net.enableVoronoiGeometry(enable);
+			net.enableVoronoiGeometry(enable && voronoiCones);
+		}
+	}
+
+	/**
+	 * Whether enabling the voronoi geometry makes the cones and loops of
+	 * the nets. A renderer which computes the voronoi regions from the
+	 * copper alone doesn't need them.
+	 */
+	public void setVoronoiCones(boolean enable) {
+
+		if (voronoiCones == enable)
+			return;
+
+		voronoiCones = enable;
+
+		for (Net net : nets) {
+			net.enableVoronoiGeometry(voronoiGeometry && voronoiCones);
 		}
 	}
 
@@ -980,7 +1044,25 @@ public class Model extends JPanel {
 		flipYButton.setSelected(flipY);
 	}
 
+	public double getFlipXScale() {
+		return flipXScale;
+	}
+
+	public double getFlipXOffset() {
+		return flipXOffset;
+	}
+
+	public double getFlipYScale() {
+		return flipYScale;
+	}
+
+	public double getFlipYOffset() {
+		return flipYOffset;
+	}
+
 	private void updateFlipT3D() {
+		if (flipT3D == null)
+			return;
 		flipT3D.set(new double[] {
 		    flipXScale, 0.0,        0.0, flipXOffset,
 				0.0,        flipYScale, 0.0, flipYOffset,
@@ -1061,6 +1143,7 @@ public class Model extends JPanel {
 	private Visolate visolate;
 
 	private Collection<Net> nets = new LinkedHashSet<Net>();
+	private NetIndex netIndex = null;
 
 	private BranchGroup modelBG = null;
 	private TransformGroup flipTG = null;
@@ -1075,6 +1158,7 @@ public class Model extends JPanel {
 	private boolean borderGeometry = false;
 	private boolean lineGeometry = false;
 	private boolean voronoiGeometry = false;
+	private boolean voronoiCones = true;
 	private boolean flatGeometry = false;
 	private boolean pathsGeometry = false;
 	private boolean gCodeGeometry = false;
@@ -1091,7 +1175,9 @@ public class Model extends JPanel {
 
 	private boolean translucent2D = DEF_TRANSLUCENT;
 
-	private LinkedHashMap<Integer, Net> colorToNet = new LinkedHashMap<Integer, Net>();
+	private Color3b borderColor = null;
+
+	private Net[] netsByIndex = new Net[0];
 
 //	private Rect boardBounds = null;
 
@@ -53,8 +53,18 @@ public class Net implements Comparable<Net> {
 
   public static final float HIGHLIGHT = 0.9f;
 
-  public Net(Visolate visolate) {
+  private static final double GOLDEN_RATIO_CONJUGATE = (Math.sqrt(5.0) - 1.0)/2.0;
+
+  public Net(Visolate visolate, int index) {
     this.visolate = visolate;
+    this.index = index;
+  }
+
+  /**
+   * @return the number of this net within the model, from 0 on
+   */
+  public int getIndex() {
+    return index;
   }
 
   public void resetArea(int dpi) {
@@ -62,8 +72,8 @@ public class Net implements Comparable<Net> {
     areaDPI = dpi;
   }
 
-  public void incrementAreaPixels() {
-    areaPixels++;
+  public void addAreaPixels(int pixels) {
+    areaPixels += pixels;
   }
 
   public double getArea() {
@@ -131,26 +141,12 @@ public class Net implements Comparable<Net> {
                        "; areaPixels: " + areaPixels);
   }
 
-  public void setSuperNet(final Set<Net> aSuperNet) {
-
-    if (this.mySuperNet == aSuperNet) {
-      return;
-    }
-
-    if (this.mySuperNet != null) {
-      aSuperNet.addAll(this.mySuperNet);
-    }
-
-    aSuperNet.add(this);
-
-    for (Iterator<Net> it = aSuperNet.iterator(); it.hasNext(); ) {
-
-      Net net = it.next();
-      net.mySuperNet = aSuperNet;
-
-      if (!(net.color).equals(color))
-        net.setColor(color);
-    }
+  /**
+   * Nets are merged by NetUnion, which hands each member the complete
+   * super net.
+   */
+  void setSuperNet(final Set<Net> aSuperNet) {
+    this.mySuperNet = aSuperNet;
   }
 
   public Set<Net> getSuperNet() {
@@ -327,6 +323,18 @@ public class Net implements Comparable<Net> {
     return color;
   }
 
+  public GeometryArray getFlatGeometry() {
+    return flatGeometry;
+  }
+
+  public GeometryArray getConeGeometry() {
+    return coneGeometry;
+  }
+
+  public GeometryArray getLoopGeometry() {
+    return loopGeometry;
+  }
+
   public void enableLineGeometry(boolean enable) {
 
     if (enable && (lineGeometry == null))
@@ -355,6 +363,45 @@ public class Net implements Comparable<Net> {
   }
 
 
+  /**
+   * Rebuilds the geometry of a net with arcs, after they were tessellated
+   * anew.
+   *
+   * @return whether the net has arcs
+   */
+  boolean arcsChanged() {
+
+    boolean hasArcs = false;
+
+    for (Stroke stroke : strokes) {
+
+      if (stroke instanceof RepeatedStroke) {
+        stroke = ((RepeatedStroke) stroke).getSource();
+      }
+
+      if (stroke instanceof Arc) {
+        hasArcs = true;
+        break;
+      }
+    }
+
+    if (!hasArcs) {
+      return false;
+    }
+
+    bounds = null;
+
+    boolean lineGeometryWas = showLineGeometry;
+    enableLineGeometry(false);
+    lineGeometry = null;
+    enableLineGeometry(lineGeometryWas);
+
+    rebuildFlatGeometry();
+    rebuildVoronoiGeometry();
+
+    return true;
+  }
+
   private void rebuildVoronoiGeometry() {
 
     boolean voronoiGeometryWas = showVoronoiGeometry;
@@ -424,6 +471,7 @@ public class Net implements Comparable<Net> {
                 geometry.setCapability(GeometryArray.ALLOW_COORDINATE_READ);
                 geometry.setCapability(GeometryArray.ALLOW_COUNT_READ);
                 geometry.setCapability(GeometryArray.ALLOW_FORMAT_READ);
+                geometry.setCapability(GeometryArray.ALLOW_REF_DATA_READ);
               }
               shape3D.addGeometry(geometry);
             }
@@ -600,20 +648,25 @@ public class Net implements Comparable<Net> {
       return;
 
 //    int vertexCount = 4*strokes.size();// + 4*2;
-    int vertexCount = 2*strokes.size();// + 4*2;
+    int vertexCount = 0;// + 4*2;
+
+    for (Stroke stroke : strokes)
+      vertexCount += 2*(stroke.getPathPoints().length-1);
 
     float[] coords = new float[3*vertexCount];
 
     int i = 0;
     for (Stroke stroke : strokes) {
 
-      Point2f s = (stroke.getStart()).getInchCoordinates();
-      Point2f e = (stroke.getEnd()).getInchCoordinates();
+      Point2f[] points = stroke.getPathPoints();
+
+      for (int k = 0; k+1 < points.length; k++) {
 
-      Vector3f d = new Vector3f();
-      Vector3f n = new Vector3f();
+        Point2f s = points[k];
+        Point2f e = points[k+1];
 
-      if (stroke instanceof Segment) {
+        Vector3f d = new Vector3f();
+        Vector3f n = new Vector3f();
 
         d.set(e.x-s.x, e.y-s.y, 0.0f);
         d.normalize();
@@ -643,8 +696,6 @@ public class Net implements Comparable<Net> {
         coords[i++] = e.y+t*n.y+(n.y*sa-d.y*ca)*TAIL_SIZE;
         coords[i++] = LINE_Z;
 */
-      } else {
-        System.out.println("WARNING: unsupported stroke: " + stroke);
       }
     }
 /*
@@ -725,31 +776,14 @@ public class Net implements Comparable<Net> {
 
     // The order of this must be the same over multiple loops.
     List<TriangleFanArray> parts = new ArrayList<TriangleFanArray>();
+    List<Vector2f> translations = new ArrayList<Vector2f>();
 
     for (Flash flash : pads) {
-
-      Collection<GeometryArray> geometries = flash.getGeometries();
-
-      if (geometries == null) {
-        continue;
-      }
-
-      for (GeometryArray geometry : geometries) {
-
-        if (geometry == null) {
-          continue;
-        }
-
-        if (geometry instanceof TriangleFanArray) {
-          parts.add((TriangleFanArray) geometry);
-        } else {
-          System.out.println("Not supported for voronoi: " + flash.toString());
-        }
-      }
+      addFans(flash, parts, translations, null, "voronoi");
     }
 
     if (parts.size() != 0) {
-      coneGeometry = makeConesFromFanList(parts);
+      coneGeometry = makeConesFromFanList(parts, translations);
     }
 
 //    // This is for debugging.
@@ -783,7 +817,12 @@ public class Net implements Comparable<Net> {
 
   }
 
-  private TriangleStripArray makeConesFromFanList(List<TriangleFanArray> fanList) {
+  /**
+   * @param translations how far to move each fan, null entries for fans
+   * in place
+   */
+  private TriangleStripArray makeConesFromFanList(List<TriangleFanArray> fanList,
+                                                  List<Vector2f> translations) {
 
     int fanListStripCount = 0;
     int fanListVertexCount = 0;
@@ -806,8 +845,17 @@ public class Net implements Comparable<Net> {
     int stripCount = 0;
     int i = 0;
 
+    Iterator<Vector2f> translationIterator = translations.iterator();
+
     for (TriangleFanArray fan : fanList) {
 
+      // offsetting corners doesn't care where they are, so the cones of
+      // shared fans are made in the fan's place and moved as they're
+      // stored
+      Vector2f translation = translationIterator.next();
+      float tx = (translation != null) ? translation.x : 0.0f;
+      float ty = (translation != null) ? translation.y : 0.0f;
+
       int numStrips = ((GeometryStripArray) fan).getNumStrips();
       int[] fanVertexCounts = new int [numStrips];
       ((GeometryStripArray) fan).getStripVertexCounts(fanVertexCounts);
@@ -864,20 +912,20 @@ public class Net implements Comparable<Net> {
 
           Point2f intersection = offsetCorner(p1, p2, p3, offsetIn);
 
-          coords[i++] = intersection.x;
-          coords[i++] = intersection.y;
+          coords[i++] = intersection.x + tx;
+          coords[i++] = intersection.y + ty;
           coords[i++] = CONE_Z_MAX - offsetIn;
 
           intersection = offsetCorner(p1, p2, p3, offsetOut);
 
-          coords[i++] = intersection.x;
-          coords[i++] = intersection.y;
+          coords[i++] = intersection.x + tx;
+          coords[i++] = intersection.y + ty;
           coords[i++] = CONE_Z_MAX - offsetOut;
         }
         vertexCounts[stripCount++] = (fanVertexCounts[j] - 1) * 2;
         vertexCount += (fanVertexCounts[j] - 1) * 2;
 
-        stripCoordsPtr += fanVertexCounts[j];
+        stripCoordsPtr += fanVertexCounts[j] * 3;
       }
     }
 
@@ -931,6 +979,7 @@ public class Net implements Comparable<Net> {
   private void makeLoopGeometry() {
 
     List<TriangleFanArray> parts = new ArrayList<TriangleFanArray>();
+    List<Vector2f> translations = new ArrayList<Vector2f>();
 
     //half edge loops
     for (HalfEdge startEdge : loopStarts) {
@@ -939,27 +988,7 @@ public class Net implements Comparable<Net> {
 
       do {
 
-        Stroke stroke = he.getStroke();
-
-        if (stroke instanceof Segment) {
-
-          Collection<GeometryArray> geometries = stroke.getGeometries();
-
-          if (geometries == null)
-            continue;
-
-          for (GeometryArray geometry : geometries) {
-
-            if (geometry instanceof TriangleFanArray) {
-              parts.add((TriangleFanArray) geometry);
-            }
-            else {
-              System.out.println("unsupported stroke geometry: " + stroke);
-            }
-          }
-        } else {
-          System.out.println("WARNING: unsupported stroke: " + stroke);
-        }
+        addFans(he.getStroke(), parts, translations, null, "voronoi");
 
         HalfEdge next = he.getNext();
         he = next;
@@ -968,7 +997,7 @@ public class Net implements Comparable<Net> {
     }
 
     if (parts.size() != 0) {
-      loopGeometry = makeConesFromFanList(parts);
+      loopGeometry = makeConesFromFanList(parts, translations);
     }
   }
 
@@ -979,62 +1008,37 @@ public class Net implements Comparable<Net> {
 
   private void makeFlatGeometry() {
 
-    if (Float.isNaN(flatZ))
-      flatZ = (float) (FLAT_Z_MAX + Math.random()*(FLAT_Z_MIN-FLAT_Z_MAX));
-
-    Collection<TriangleFanArray> fanParts = new LinkedHashSet<TriangleFanArray>();
-
-    for (Stroke stroke : strokes) {
-
-      Collection<GeometryArray> geometries = stroke.getGeometries();
-
-      if (geometries == null) {
-        continue;
-      }
+    // spread out by the golden ratio, so every net gets its own depth, and
+    // the same one each time
+    if (Float.isNaN(flatZ)) {
+      double fraction = (index*GOLDEN_RATIO_CONJUGATE) % 1.0;
+      flatZ = (float) (FLAT_Z_MAX + fraction*(FLAT_Z_MIN-FLAT_Z_MAX));
+    }
 
-      for (GeometryArray geometry : geometries) {
+    List<TriangleFanArray> fanParts = new ArrayList<TriangleFanArray>();
+    List<Vector2f> translations = new ArrayList<Vector2f>();
 
-        if (geometry == null) {
-          continue;
-        }
+    // the same fan in the same place is drawn only once
+    Set<List<Object>> seen = new HashSet<List<Object>>();
 
-        if (geometry instanceof TriangleFanArray) {
-          fanParts.add((TriangleFanArray) geometry);
-        } else {
-          System.out.println("Not supported for flat geometry: " + geometry.toString());
-        }
-      }
+    for (Stroke stroke : strokes) {
+      addFans(stroke, fanParts, translations, seen, "flat geometry");
     }
 
     for (Flash flash : pads) {
-
-      Collection<GeometryArray> geometries = flash.getGeometries();
-
-      if (geometries == null) {
-        continue;
-      }
-
-      for (GeometryArray geometry : geometries) {
-
-        if (geometry == null) {
-          continue;
-        }
-
-        if (geometry instanceof TriangleFanArray) {
-          fanParts.add((TriangleFanArray) geometry);
-        } else {
-          System.out.println("Not supported for flat geometry: " + geometry.toString());
-        }
-      }
+      addFans(flash, fanParts, translations, seen, "flat geometry");
     }
 
     if (fanParts.size() != 0) {
 
-      int numFans = fanParts.size();
-      int[] vertexCounts = new int[numFans];
+      int numStrips = 0;
+      for (TriangleFanArray part : fanParts)
+        numStrips += part.getNumStrips();
+
+      int[] vertexCounts = new int[numStrips];
       int vertexCount = computeVertexCounts(fanParts, vertexCounts);
       float[] coords = new float[vertexCount*3];
-      populateCoords(fanParts, coords);
+      populateCoords(fanParts, translations, coords);
 
       flatGeometry = new TriangleFanArray(vertexCount,
                                           GeometryArray.COORDINATES |
@@ -1045,29 +1049,110 @@ public class Net implements Comparable<Net> {
 
   }
 
-  private int computeVertexCounts(Collection<? extends GeometryArray> parts, int[] vertexCounts) {
+  private int computeVertexCounts(Collection<? extends TriangleFanArray> parts, int[] vertexCounts) {
 
     int total = 0;
     int i = 0;
-    for (GeometryArray part : parts) {
+    for (TriangleFanArray part : parts) {
 
-      int vertexCount = part.getVertexCount();
-      total += vertexCount;
-      vertexCounts[i++] = vertexCount;
+      int[] stripVertexCounts = new int[part.getNumStrips()];
+      part.getStripVertexCounts(stripVertexCounts);
+
+      for (int vertexCount : stripVertexCounts) {
+        total += vertexCount;
+        vertexCounts[i++] = vertexCount;
+      }
     }
 
     return total;
   }
 
-  private void populateCoords(Collection<? extends GeometryArray> parts, float[] coords) {
+  /**
+   * Collects the fans of all strokes and pads, as they are before they are
+   * copied into the flat geometry, along with the action each belongs to.
+   */
+  void collectFans(List<TriangleFanArray> fans,
+                   List<Vector2f> translations,
+                   List<Action> actions) {
+
+    for (Stroke stroke : strokes) {
+      addFans(stroke, fans, translations, null, "picking");
+      while (actions.size() < fans.size()) {
+        actions.add(stroke);
+      }
+    }
+
+    for (Flash flash : pads) {
+      addFans(flash, fans, translations, null, "picking");
+      while (actions.size() < fans.size()) {
+        actions.add(flash);
+      }
+    }
+  }
+
+  /**
+   * Adds the fans an action is drawn with, to be moved by the matching
+   * entry of translations.
+   *
+   * @param seen if not null, what was added before, to leave out fans
+   * already there
+   */
+  private static void addFans(Action action,
+                              List<TriangleFanArray> fans,
+                              List<Vector2f> translations,
+                              Set<List<Object>> seen,
+                              String usage) {
+
+    Collection<GeometryArray> geometries = action.getSharedGeometries();
+
+    if (geometries == null) {
+      return;
+    }
+
+    Vector2f translation = action.getTranslation();
+
+    for (GeometryArray geometry : geometries) {
+
+      if (geometry == null) {
+        continue;
+      }
+
+      if (!(geometry instanceof TriangleFanArray)) {
+        System.out.println("Not supported for " + usage + ": " + action.toString());
+        continue;
+      }
+
+      if ((seen != null) &&
+          !seen.add(Arrays.asList((Object) geometry, translation))) {
+        continue;
+      }
+
+      fans.add((TriangleFanArray) geometry);
+      translations.add(translation);
+    }
+  }
+
+  private void populateCoords(List<? extends GeometryArray> parts,
+                              List<Vector2f> translations,
+                              float[] coords) {
 
     int i = 0;
-    for (GeometryArray gpart : parts) {
+    for (int j = 0; j < parts.size(); j++) {
 
-      float[] part = gpart.getCoordRefFloat();
+      float[] part = parts.get(j).getCoordRefFloat();
+      Vector2f translation = translations.get(j);
 
       int len = part.length;
-      System.arraycopy(part, 0, coords, i, len);
+
+      if (translation == null) {
+        System.arraycopy(part, 0, coords, i, len);
+      } else {
+        for (int k = 0; k < len; k += 3) {
+          coords[i+k] = part[k] + translation.x;
+          coords[i+k+1] = part[k+1] + translation.y;
+        }
+      }
+
       i += len;
     }
 
@@ -1133,6 +1218,8 @@ public class Net implements Comparable<Net> {
 
   private Visolate visolate;
 
+  private int index;
+
   private Collection<Stroke> strokes = new LinkedList<Stroke>();
   private Collection<HalfEdge> loopStarts = new LinkedList<HalfEdge>();
   private LinkedHashSet<HalfEdge> halfEdges = new LinkedHashSet<HalfEdge>();
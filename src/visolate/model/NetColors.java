@@ -0,0 +1,124 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+
+package visolate.model;
+
+import javax.vecmath.Color3b;
+
+/**
+ * Colors nets by their index, so the net a pel belongs to follows from its
+ * color alone, and the same board always gets the same colors.
+ *
+ * The index is numbered from 1 on, 0 is the black background, and
+ * scrambled by multiplication with an odd constant, which is a bijection
+ * on the bits the frame buffer has. So neighbouring nets get very
+ * different colors, and decoding is a multiplication by the inverse. The
+ * numbers which come out as white and as the border color are skipped.
+ */
+public class NetColors {
+
+  private static final int MULTIPLIER = 0x9e3779b1;
+
+  public NetColors(int rBits, int gBits, int bBits) {
+
+    this.rBits = rBits;
+    this.gBits = gBits;
+    this.bBits = bBits;
+
+    mask = (1 << (rBits + gBits + bBits)) - 1;
+
+    multiplier = MULTIPLIER & mask;
+
+    // Newton's iteration, each step doubles the correct low bits
+    int inverse = MULTIPLIER;
+    for (int i = 0; i < 5; i++)
+      inverse *= 2 - MULTIPLIER*inverse;
+
+    this.inverse = inverse & mask;
+
+    white = mask*this.inverse & mask;
+  }
+
+  /**
+   * @return how many nets can be told apart
+   */
+  public int getCapacity() {
+    return mask - 2;
+  }
+
+  public Color3b getColor(int index) {
+
+    int number = (index % getCapacity()) + 1;
+
+    if (number >= white)
+      number++;
+
+    return toColor(number*multiplier & mask);
+  }
+
+  public Color3b getBorderColor() {
+    return toColor(mask*multiplier & mask);
+  }
+
+  /**
+   * @param rgb a pel as read from a tile, 8 bits per channel
+   * @return the index of the net drawn in that color, -1 for the
+   * background, white and the border. Pels of no net's color, like blends, give some other
+   * number, which may well be the index of another net.
+   */
+  public int getIndex(int rgb) {
+
+    int r = ((rgb >> 16) & 0xff) >> (8 - rBits);
+    int g = ((rgb >> 8) & 0xff) >> (8 - gBits);
+    int b = (rgb & 0xff) >> (8 - bBits);
+
+    int code = (r << (gBits + bBits)) | (g << bBits) | b;
+
+    int number = code*inverse & mask;
+
+    if ((number == 0) || (number == white) || (number == mask))
+      return -1;
+
+    return (number > white) ? number - 2 : number - 1;
+  }
+
+  private Color3b toColor(int code) {
+
+    int r = (code >> (gBits + bBits)) & ((1 << rBits) - 1);
+    int g = (code >> bBits) & ((1 << gBits) - 1);
+    int b = code & ((1 << bBits) - 1);
+
+    return new Color3b((byte) (r << (8 - rBits)),
+                       (byte) (g << (8 - gBits)),
+                       (byte) (b << (8 - bBits)));
+  }
+
+  private final int rBits;
+  private final int gBits;
+  private final int bBits;
+
+  private final int mask;
+  private final int multiplier;
+  private final int inverse;
+
+  // the number which comes out as white
+  private final int white;
+}
@@ -0,0 +1,578 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+package visolate.model;
+
+import java.util.*;
+
+import javax.media.j3d.TriangleFanArray;
+import javax.vecmath.Vector2f;
+
+import visolate.simulator.*;
+
+/**
+ * Finds the nets at a point without Java3D picking. Every triangle fan of
+ * every stroke and pad, at the offset the nets have now, is put into the
+ * buckets of a uniform grid its bounds overlap. A query tests the fans in
+ * the buckets around the point exactly, triangle by triangle.
+ *
+ * The same grid finds the nets which overlap each other, see connect().
+ */
+public class NetIndex {
+
+  public static final int FANS_PER_CELL = 2;
+  public static final int MAX_CELLS_ACROSS = 32;
+
+  // how much coordinates stored as floats may be off
+  public static final double EPSILON = 1.0e-6;
+
+  private static final int COUNT = 0;
+  private static final int FILL = 1;
+
+  public NetIndex(Collection<Net> nets) {
+
+    List<TriangleFanArray> fans = new ArrayList<TriangleFanArray>();
+    List<Vector2f> translations = new ArrayList<Vector2f>();
+    List<Action> fanActions = new ArrayList<Action>();
+    List<Net> fanNets = new ArrayList<Net>();
+
+    for (Net net : nets) {
+      net.collectFans(fans, translations, fanActions);
+      while (fanNets.size() < fans.size())
+        fanNets.add(net);
+    }
+
+    int numStrips = 0;
+    for (TriangleFanArray fan : fans)
+      numStrips += fan.getNumStrips();
+
+    coords = new float[numStrips][];
+    start = new int[numStrips];
+    count = new int[numStrips];
+    tx = new float[numStrips];
+    ty = new float[numStrips];
+    stripNets = new Net[numStrips];
+    margin = new float[numStrips];
+
+    minX = new float[numStrips];
+    minY = new float[numStrips];
+    maxX = new float[numStrips];
+    maxY = new float[numStrips];
+
+    int s = 0;
+
+    for (int i = 0; i < fans.size(); i++) {
+
+      TriangleFanArray fan = fans.get(i);
+      float[] fanCoords = fan.getCoordRefFloat();
+
+      Vector2f translation = translations.get(i);
+
+      int[] stripVertexCounts = new int[fan.getNumStrips()];
+      fan.getStripVertexCounts(stripVertexCounts);
+
+      int first = 0;
+
+      for (int vertexCount : stripVertexCounts) {
+
+        coords[s] = fanCoords;
+        start[s] = first;
+        count[s] = vertexCount;
+        tx[s] = (translation != null) ? translation.x : 0.0f;
+        ty[s] = (translation != null) ? translation.y : 0.0f;
+        stripNets[s] = fanNets.get(i);
+        margin[s] = (float) (getRoundingError(fanActions.get(i)) + EPSILON);
+
+        minX[s] = Float.POSITIVE_INFINITY;
+        minY[s] = Float.POSITIVE_INFINITY;
+        maxX[s] = Float.NEGATIVE_INFINITY;
+        maxY[s] = Float.NEGATIVE_INFINITY;
+
+        for (int v = first; v < first + vertexCount; v++) {
+          minX[s] = Math.min(minX[s], fanCoords[3*v] + tx[s]);
+          minY[s] = Math.min(minY[s], fanCoords[3*v+1] + ty[s]);
+          maxX[s] = Math.max(maxX[s], fanCoords[3*v] + tx[s]);
+          maxY[s] = Math.max(maxY[s], fanCoords[3*v+1] + ty[s]);
+        }
+
+        first += vertexCount;
+        s++;
+      }
+    }
+
+    build();
+
+    visited = new int[numStrips];
+  }
+
+  /**
+   * Adds the nets with copper within radius of (x, y) to nets.
+   *
+   * @return nets
+   */
+  public synchronized Collection<Net> getNetsAtPoint(double x, double y,
+                                                     double radius,
+                                                     Collection<Net> nets) {
+
+    if (stripNets.length == 0)
+      return nets;
+
+    query++;
+
+    Set<Net> found = new HashSet<Net>();
+
+    int i0 = cellX(x - radius);
+    int i1 = cellX(x + radius);
+    int j0 = cellY(y - radius);
+    int j1 = cellY(y + radius);
+
+    for (int j = j0; j <= j1; j++) {
+      for (int i = i0; i <= i1; i++) {
+
+        int cell = j*numCellsX + i;
+
+        for (int e = cellStart[cell]; e < cellStart[cell+1]; e++) {
+
+          int s = cellStrips[e];
+
+          if (visited[s] == query)
+            continue;
+
+          visited[s] = query;
+
+          if (found.contains(stripNets[s]))
+            continue;
+
+          if ((x + radius < minX[s]) || (x - radius > maxX[s]) ||
+              (y + radius < minY[s]) || (y - radius > maxY[s]))
+            continue;
+
+          if (isNear(s, x, y, radius))
+            found.add(stripNets[s]);
+        }
+      }
+    }
+
+    nets.addAll(found);
+
+    return nets;
+  }
+
+  /**
+   * Merges the nets whose copper overlaps or touches. The fans sharing a
+   * cell are tested pairwise, unless their nets are merged already, so on
+   * large planes most cells are done at a glance.
+   *
+   * @return how many pairs of fans were found to overlap
+   */
+  public int connect(NetUnion union) {
+
+    int numOverlaps = 0;
+
+    int[] roots = new int[0];
+
+    for (int cell = 0; cell < numCellsX*numCellsY; cell++) {
+
+      int first = cellStart[cell];
+      int k = cellStart[cell+1] - first;
+
+      if (k < 2)
+        continue;
+
+      if (roots.length < k)
+        roots = new int[2*k];
+
+      boolean merged = findRoots(union, first, k, roots);
+
+      for (int e = 0; (e < k) && !merged; e++) {
+
+        int s = cellStrips[first + e];
+
+        for (int f = e+1; f < k; f++) {
+
+          if (roots[e] == roots[f])
+            continue;
+
+          int t = cellStrips[first + f];
+
+          double gap = margin[s] + margin[t];
+
+          if ((maxX[s] + gap < minX[t]) || (maxX[t] + gap < minX[s]) ||
+              (maxY[s] + gap < minY[t]) || (maxY[t] + gap < minY[s]))
+            continue;
+
+          if (overlaps(s, t)) {
+            union.union(stripNets[s], stripNets[t]);
+            numOverlaps++;
+            merged = findRoots(union, first, k, roots);
+          }
+        }
+      }
+    }
+
+    return numOverlaps;
+  }
+
+  /**
+   * Finds the super nets of the k fans from cellStrips[first] on.
+   *
+   * @return whether they are all in the same one
+   */
+  private boolean findRoots(NetUnion union, int first, int k, int[] roots) {
+
+    boolean merged = true;
+
+    for (int e = 0; e < k; e++) {
+      roots[e] = union.find(stripNets[cellStrips[first + e]].getIndex());
+      merged &= (roots[e] == roots[0]);
+    }
+
+    return merged;
+  }
+
+  /**
+   * All the fans the apertures and strokes make are convex, so two of them
+   * overlap unless the edge of one of them separates them.
+   */
+  private boolean overlaps(int s, int t) {
+    double gap = margin[s] + margin[t];
+    return !separates(s, t, gap) && !separates(t, s, gap);
+  }
+
+  /**
+   * @return whether some edge of strip s has all of strip t more than gap
+   * away on its outer side
+   */
+  private boolean separates(int s, int t, double gap) {
+
+    float[] c = coords[s];
+
+    int first = start[s];
+    int last = start[s] + count[s] - 1;
+
+    for (int v = first; v <= last; v++) {
+
+      int w = (v == last) ? first : v+1;
+
+      double ax = c[3*v] + tx[s];
+      double ay = c[3*v+1] + ty[s];
+      double dx = c[3*w] + tx[s] - ax;
+      double dy = c[3*w+1] + ty[s] - ay;
+
+      double length = Math.sqrt(dx*dx + dy*dy);
+
+      if (length == 0.0)
+        continue;
+
+      dx /= length;
+      dy /= length;
+
+      // which side of the edge s is on, and where t is
+      double sMin = Double.POSITIVE_INFINITY;
+      double sMax = Double.NEGATIVE_INFINITY;
+
+      for (int k = first; k <= last; k++) {
+        double d = dx*(c[3*k+1] + ty[s] - ay) - dy*(c[3*k] + tx[s] - ax);
+        sMin = Math.min(sMin, d);
+        sMax = Math.max(sMax, d);
+      }
+
+      double tMin = Double.POSITIVE_INFINITY;
+      double tMax = Double.NEGATIVE_INFINITY;
+
+      float[] ct = coords[t];
+
+      for (int k = start[t]; k < start[t] + count[t]; k++) {
+        double d = dx*(ct[3*k+1] + ty[t] - ay) - dy*(ct[3*k] + tx[t] - ax);
+        tMin = Math.min(tMin, d);
+        tMax = Math.max(tMax, d);
+      }
+
+      if ((tMax < sMin - gap) || (tMin > sMax + gap))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * @return whether (x, y) is within radius of one of the triangles of
+   * strip s
+   */
+  private boolean isNear(int s, double x, double y, double radius) {
+
+    float[] c = coords[s];
+
+    int v0 = 3*start[s];
+
+    double ax = c[v0] + tx[s];
+    double ay = c[v0+1] + ty[s];
+
+    for (int v = start[s] + 2; v < start[s] + count[s]; v++) {
+
+      double bx = c[3*v-3] + tx[s];
+      double by = c[3*v-2] + ty[s];
+      double cx = c[3*v] + tx[s];
+      double cy = c[3*v+1] + ty[s];
+
+      double d0 = cross(ax, ay, bx, by, x, y);
+      double d1 = cross(bx, by, cx, cy, x, y);
+      double d2 = cross(cx, cy, ax, ay, x, y);
+
+      // inside, whichever way round the triangle goes
+      if (((d0 >= 0) && (d1 >= 0) && (d2 >= 0)) ||
+          ((d0 <= 0) && (d1 <= 0) && (d2 <= 0)))
+        return true;
+
+      if ((radius > 0.0) &&
+          ((segmentDistanceSquared(ax, ay, bx, by, x, y) <= radius*radius) ||
+           (segmentDistanceSquared(bx, by, cx, cy, x, y) <= radius*radius) ||
+           (segmentDistanceSquared(cx, cy, ax, ay, x, y) <= radius*radius)))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Round apertures are drawn as inscribed polygons, so copper which
+   * touches may be drawn up to this far apart.
+   */
+  private static double getRoundingError(Action action) {
+
+    Aperture aperture = null;
+
+    if (action instanceof Stroke)
+      aperture = ((Stroke) action).getAperture();
+    else if (action instanceof Flash)
+      aperture = ((Flash) action).getAperture();
+
+    if (aperture == null)
+      return 0.0;
+
+    return aperture.getWidth(0.0)/2*(1.0 - Math.cos(CircleAperture.SECTOR/2));
+  }
+
+  private static double cross(double ax, double ay, double bx, double by,
+                              double px, double py) {
+    return (bx - ax)*(py - ay) - (by - ay)*(px - ax);
+  }
+
+  private static double segmentDistanceSquared(double ax, double ay,
+                                               double bx, double by,
+                                               double px, double py) {
+
+    double dx = bx - ax;
+    double dy = by - ay;
+
+    double lengthSquared = dx*dx + dy*dy;
+
+    double t = 0.0;
+
+    if (lengthSquared > 0.0)
+      t = Math.max(0.0, Math.min(1.0, ((px - ax)*dx + (py - ay)*dy)/lengthSquared));
+
+    double ex = ax + t*dx - px;
+    double ey = ay + t*dy - py;
+
+    return ex*ex + ey*ey;
+  }
+
+  private void build() {
+
+    int n = stripNets.length;
+
+    gridMinX = Double.POSITIVE_INFINITY;
+    gridMinY = Double.POSITIVE_INFINITY;
+    double gridMaxX = Double.NEGATIVE_INFINITY;
+    double gridMaxY = Double.NEGATIVE_INFINITY;
+
+    double extent = 0.0;
+
+    for (int s = 0; s < n; s++) {
+      gridMinX = Math.min(gridMinX, minX[s]);
+      gridMinY = Math.min(gridMinY, minY[s]);
+      gridMaxX = Math.max(gridMaxX, maxX[s]);
+      gridMaxY = Math.max(gridMaxY, maxY[s]);
+      extent += Math.max(maxX[s] - minX[s], maxY[s] - minY[s]);
+    }
+
+    double width = gridMaxX - gridMinX;
+    double height = gridMaxY - gridMinY;
+
+    // no more cells than fans along either side, and no fan across more
+    // than a few dozen cells on average
+    cellSize = Math.max(Math.sqrt(width*height*FANS_PER_CELL/Math.max(n, 1)),
+                        Math.max(width, height)*FANS_PER_CELL/Math.max(n, 1));
+    cellSize = Math.max(cellSize, extent/MAX_CELLS_ACROSS/Math.max(n, 1));
+
+    if (!(cellSize > 0.0))
+      cellSize = 1.0;
+
+    numCellsX = (int) Math.floor(width/cellSize) + 1;
+    numCellsY = (int) Math.floor(height/cellSize) + 1;
+
+    cellStart = new int[numCellsX*numCellsY + 1];
+
+    for (int pass = COUNT; pass <= FILL; pass++) {
+
+      int[] fill = null;
+
+      if (pass == FILL) {
+
+        for (int cell = 0; cell < numCellsX*numCellsY; cell++)
+          cellStart[cell+1] += cellStart[cell];
+
+        cellStrips = new int[cellStart[numCellsX*numCellsY]];
+        fill = new int[numCellsX*numCellsY];
+      }
+
+      int[] stamp = new int[numCellsX*numCellsY];
+
+      for (int s = 0; s < n; s++)
+        addStrip(s, pass, fill, stamp);
+    }
+  }
+
+  /**
+   * Counts strip s into the cells its triangles, grown by its margin,
+   * overlap on the first pass, stores it there on the second. Long
+   * diagonal traces cross only a few of the cells their bounds cover, so
+   * the triangles are scanned row by row of cells.
+   */
+  private void addStrip(int s, int pass, int[] fill, int[] stamp) {
+
+    double m = margin[s];
+
+    float[] c = coords[s];
+
+    double[] px = new double[3];
+    double[] py = new double[3];
+
+    px[0] = c[3*start[s]] + tx[s];
+    py[0] = c[3*start[s]+1] + ty[s];
+
+    for (int v = start[s] + 2; v < start[s] + count[s]; v++) {
+
+      px[1] = c[3*v-3] + tx[s];
+      py[1] = c[3*v-2] + ty[s];
+      px[2] = c[3*v] + tx[s];
+      py[2] = c[3*v+1] + ty[s];
+
+      int j0 = cellY(Math.min(py[0], Math.min(py[1], py[2])) - m);
+      int j1 = cellY(Math.max(py[0], Math.max(py[1], py[2])) + m);
+
+      for (int j = j0; j <= j1; j++) {
+
+        double y0 = (j == j0) ? Double.NEGATIVE_INFINITY : gridMinY + j*cellSize - m;
+        double y1 = (j == j1) ? Double.POSITIVE_INFINITY : gridMinY + (j+1)*cellSize + m;
+
+        // x range of the triangle within the row
+        double x0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+
+        for (int e = 0; e < 3; e++) {
+
+          int f = (e + 1) % 3;
+
+          if ((py[e] >= y0) && (py[e] <= y1)) {
+            x0 = Math.min(x0, px[e]);
+            x1 = Math.max(x1, px[e]);
+          }
+
+          for (int k = 0; k < 2; k++) {
+
+            double y = (k == 0) ? y0 : y1;
+
+            if ((Math.min(py[e], py[f]) <= y) && (Math.max(py[e], py[f]) >= y) &&
+                (py[e] != py[f])) {
+              double x = px[e] + (px[f] - px[e])*(y - py[e])/(py[f] - py[e]);
+              x0 = Math.min(x0, x);
+              x1 = Math.max(x1, x);
+            }
+          }
+        }
+
+        if (x0 > x1)
+          continue;
+
+        for (int i = cellX(x0 - m); i <= cellX(x1 + m); i++) {
+
+          int cell = j*numCellsX + i;
+
+          if (stamp[cell] == s+1)
+            continue;
+
+          stamp[cell] = s+1;
+
+          if (pass == COUNT)
+            cellStart[cell+1]++;
+          else
+            cellStrips[cellStart[cell] + fill[cell]++] = s;
+        }
+      }
+    }
+  }
+
+  private int cellX(double x) {
+    return clamp((int) Math.floor((x - gridMinX)/cellSize), numCellsX);
+  }
+
+  private int cellY(double y) {
+    return clamp((int) Math.floor((y - gridMinY)/cellSize), numCellsY);
+  }
+
+  private static int clamp(int i, int n) {
+
+    if (i < 0)
+      return 0;
+
+    if (i >= n)
+      return n-1;
+
+    return i;
+  }
+
+  private final float[][] coords;
+  private final int[] start;
+  private final int[] count;
+  private final float[] tx;
+  private final float[] ty;
+  private final Net[] stripNets;
+  private final float[] margin;
+
+  private final float[] minX;
+  private final float[] minY;
+  private final float[] maxX;
+  private final float[] maxY;
+
+  private double gridMinX;
+  private double gridMinY;
+  private double cellSize;
+
+  private int numCellsX;
+  private int numCellsY;
+
+  private int[] cellStart;
+  private int[] cellStrips;
+
+  private final int[] visited;
+  private int query = 0;
+}
@@ -0,0 +1,184 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+
+package visolate.model;
+
+import java.util.*;
+
+import javax.vecmath.Color3b;
+
+/**
+ * Merges nets into super nets. The nets are the elements of a disjoint set
+ * forest keyed by net index, with path compression and union by rank, so
+ * a merge costs next to nothing however long the chains of merges get.
+ *
+ * Nothing is handed to the nets before apply(), which gives every net its
+ * super net and colors it in one go.
+ */
+public class NetUnion {
+
+  /**
+   * @param nets the nets to merge, super nets they are in already are
+   * kept together
+   */
+  public NetUnion(Collection<Net> nets) {
+
+    int n = 0;
+    for (Net net : nets)
+      n = Math.max(n, net.getIndex() + 1);
+
+    this.nets = new Net[n];
+    parent = new int[n];
+    rank = new byte[n];
+
+    for (int i = 0; i < n; i++)
+      parent[i] = i;
+
+    for (Net net : nets)
+      this.nets[net.getIndex()] = net;
+
+    for (Net net : nets) {
+
+      Set<Net> superNet = net.getSuperNet();
+
+      if (superNet != null)
+        union(net, superNet.iterator().next());
+    }
+  }
+
+  /**
+   * @return the index of the net standing for the super net of net i
+   */
+  public int find(int i) {
+
+    int root = i;
+    while (parent[root] != root)
+      root = parent[root];
+
+    while (parent[i] != root) {
+      int next = parent[i];
+      parent[i] = root;
+      i = next;
+    }
+
+    return root;
+  }
+
+  /**
+   * @return whether a and b were in different super nets before
+   */
+  public boolean union(Net a, Net b) {
+
+    int i = a.getIndex();
+    int j = b.getIndex();
+
+    if ((i >= nets.length) || (nets[i] != a) ||
+        (j >= nets.length) || (nets[j] != b))
+      return false;
+
+    i = find(i);
+    j = find(j);
+
+    if (i == j)
+      return false;
+
+    if (rank[i] < rank[j]) {
+      parent[i] = j;
+    } else {
+      parent[j] = i;
+      if (rank[i] == rank[j])
+        rank[i]++;
+    }
+
+    return true;
+  }
+
+  public void union(Collection<Net> nets) {
+
+    Net first = null;
+
+    for (Net net : nets) {
+      if (first == null)
+        first = net;
+      else
+        union(first, net);
+    }
+  }
+
+  /**
+   * Hands every net its super net, null if it is on its own, and gives
+   * all nets of a super net the color of its first net.
+   *
+   * @return the number of super nets with more than one net
+   */
+  public int apply() {
+
+    int[] size = new int[nets.length];
+
+    for (int i = 0; i < nets.length; i++)
+      if (nets[i] != null)
+        size[find(i)]++;
+
+    List<Set<Net>> superNets = new ArrayList<Set<Net>>(nets.length);
+    for (int i = 0; i < nets.length; i++)
+      superNets.add(null);
+
+    int numSuperNets = 0;
+
+    for (int i = 0; i < nets.length; i++) {
+
+      Net net = nets[i];
+
+      if (net == null)
+        continue;
+
+      int root = find(i);
+
+      if (size[root] < 2) {
+        net.setSuperNet(null);
+        continue;
+      }
+
+      Set<Net> superNet = superNets.get(root);
+
+      if (superNet == null) {
+        superNet = new LinkedHashSet<Net>();
+        superNets.set(root, superNet);
+        numSuperNets++;
+      }
+
+      superNet.add(net);
+      net.setSuperNet(superNet);
+
+      Color3b color = superNet.iterator().next().getColor();
+
+      if (!net.getColor().equals(color))
+        net.setColor(color);
+    }
+
+    return numSuperNets;
+  }
+
+  private final Net[] nets;
+
+  private final int[] parent;
+  private final byte[] rank;
+}
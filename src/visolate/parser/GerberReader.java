@@ -0,0 +1,452 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+package visolate.parser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import visolate.simulator.Simulator;
+
+/**
+ * Reads a Gerber file straight from a (memory mapped, if possible) byte
+ * buffer. Data blocks, the bulk of any Gerber file, are scanned here and
+ * fed to the Simulator as ints, without any Strings or Tokens.
+ *
+ * Everything else, parameter blocks between % and %, comments and blocks
+ * not understood here, is handed to the JavaCC Parser, so its grammar
+ * remains the reference. Consecutive such blocks go to it in one piece.
+ */
+public class GerberReader {
+
+  public GerberReader(Simulator simulator) {
+    this.simulator = simulator;
+  }
+
+  public void read(File file) throws IOException, ParseException {
+
+    FileInputStream in = new FileInputStream(file);
+
+    try {
+      read(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Files are mapped into memory, other streams are read completely first.
+   */
+  public void read(InputStream in) throws IOException, ParseException {
+
+    if (in instanceof FileInputStream) {
+      FileChannel channel = ((FileInputStream) in).getChannel();
+      read(channel.map(FileChannel.MapMode.READ_ONLY,
+                       channel.position(), channel.size() - channel.position()));
+      return;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] chunk = new byte[64*1024];
+
+    for (int n = in.read(chunk); n >= 0; n = in.read(chunk))
+      bytes.write(chunk, 0, n);
+
+    read(ByteBuffer.wrap(bytes.toByteArray()));
+  }
+
+  public void read(ByteBuffer buffer) throws ParseException {
+
+    this.buffer = buffer;
+
+    end = buffer.limit();
+    pos = buffer.position();
+
+    line = 1;
+    linePos = pos;
+    prevCR = false;
+
+    delegateStart = -1;
+
+    while (true) {
+
+      skipWhitespace();
+
+      if (pos >= end)
+        break;
+
+      int blockStart = pos;
+
+      if (buffer.get(pos) == '%') {
+
+        pos = Math.min(indexOf('%', pos+1) + 1, end);
+        delegate(blockStart, pos);
+
+      } else {
+
+        int star = indexOf('*', pos);
+
+        if (star >= end) {
+          // no end of block, let the parser complain
+          delegate(blockStart, end);
+          break;
+        }
+
+        pos = star + 1;
+
+        if (!isDataBlock(blockStart, star)) {
+          delegate(blockStart, pos);
+          continue;
+        }
+
+        flushDelegated();
+
+        if (runDataBlock(star)) {
+          simulator.endOfProgram();
+          return;
+        }
+      }
+    }
+
+    flushDelegated();
+
+    simulator.endOfProgram();
+  }
+
+  /**
+   * Checks whether a block is of the form the JavaCC grammar calls Code(),
+   * without comment, and scans its fields.
+   */
+  private boolean isDataBlock(int start, int star) {
+
+    scan = start;
+    scanEnd = star;
+
+    seq = -1;
+    gCode = -1;
+    dCode = -1;
+    mCode = -1;
+    numCoords = 0;
+
+    xDigits = 0;
+    yDigits = 0;
+    iDigits = 0;
+    jDigits = 0;
+
+    if (peek() == 'N') {
+      scan++;
+      if (!scanDigits(true))
+        return false;
+      seq = value;
+    }
+
+    // G and M codes are single tokens to the parser, D codes are if
+    // they are D01 to D03.
+
+    if (peek() == 'M') {
+      scan++;
+      if (!scanDigits(false) || (digits != 2) || (value > 2))
+        return false;
+      mCode = value;
+      return peek() < 0;
+    }
+
+    if (peek() == 'G') {
+      scan++;
+      if (!scanDigits(false) || (digits != 2) || !isSimpleGCode(value))
+        return false;
+      gCode = value;
+    }
+
+    while (true) {
+
+      int c = peek();
+
+      if ((c != 'X') && (c != 'Y') && (c != 'I') && (c != 'J'))
+        break;
+
+      scan++;
+
+      if (!scanCoord())
+        return false;
+
+      switch (c) {
+      case 'X': x = value; xDigits = digits; break;
+      case 'Y': y = value; yDigits = digits; break;
+      case 'I': i = value; iDigits = digits; break;
+      case 'J': j = value; jDigits = digits; break;
+      }
+
+      numCoords++;
+    }
+
+    if (peek() == 'D') {
+      scan++;
+      boolean joined = scanDigits(false);
+      if (!joined && !scanDigits(true))
+        return false;
+      dCode = value;
+      dCodeDigits = joined ? digits : 0;
+      dCodeFlash = joined && (digits >= 2) &&
+        (buffer.get(scan-digits) == '0') && (buffer.get(scan-digits+1) == '3');
+    }
+
+    return peek() < 0;
+  }
+
+  /**
+   * Does what the actions in Code(), GCode() and DCode() do.
+   *
+   * @return true if the program stops here
+   */
+  private boolean runDataBlock(int star) {
+
+    switch (gCode) {
+    case 0: simulator.setMode(Simulator.RAPID); break;
+    case 1: simulator.setMode(Simulator.LINEAR); break;
+    case 2: simulator.setMode(Simulator.CW); break;
+    case 3: simulator.setMode(Simulator.CCW); break;
+    case 36: simulator.setMode(Simulator.POLYGON); break;
+    case 37: simulator.endPolygon(); break;
+    case 71: simulator.setMetric(); break;
+    case 74: simulator.set360(false); break;
+    case 75: simulator.set360(true); break;
+    case 90: simulator.setIncremental(false); break;
+    case 91: simulator.setIncremental(true); break;
+    }
+
+    if (dCode >= 0) {
+
+      // D01 to D03 with two digits switch the exposure, anything else
+      // selects an aperture, see NonCoordinateDCode()
+      if ((dCodeDigits == 2) && (dCode >= 1) && (dCode <= 3)) {
+        switch (dCode) {
+        case 1: simulator.setExposure(Simulator.OPEN); break;
+        case 2: simulator.setExposure(Simulator.CLOSED); break;
+        case 3: simulator.setExposure(Simulator.FLASH); break;
+        }
+      } else {
+        simulator.setAperture(dCode);
+      }
+
+      if ((numCoords == 0) && dCodeFlash)
+        simulator.addFlash();
+    }
+
+    if ((iDigits > 0) || (jDigits > 0))
+      simulator.setCenter(i, iDigits, j, jDigits);
+
+    if ((xDigits > 0) || (yDigits > 0))
+      simulator.setPosition(x, xDigits, y, yDigits);
+
+    if ((mCode == Parser.HALT) || (mCode == 2))
+      return true;
+
+    if (mCode == Parser.OPTSTOP)
+      return !simulator.askContinue(lineAt(star), seq);
+
+    return false;
+  }
+
+  private static boolean isSimpleGCode(int code) {
+    switch (code) {
+    case 0: case 1: case 2: case 3:
+    case 36: case 37: case 54:
+    case 70: case 71: case 74: case 75:
+    case 90: case 91:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * @return the next non-whitespace byte of the block, -1 at its end
+   */
+  private int peek() {
+
+    while (scan < scanEnd) {
+      byte b = buffer.get(scan);
+      if ((b != ' ') && (b != '\t') && (b != '\n') && (b != '\r'))
+        return b;
+      scan++;
+    }
+
+    return -1;
+  }
+
+  private boolean scanCoord() {
+
+    int c = peek();
+
+    boolean negative = (c == '-');
+
+    if ((c == '-') || (c == '+'))
+      scan++;
+
+    if (!scanDigits(true))
+      return false;
+
+    if (negative)
+      value = -value;
+
+    return true;
+  }
+
+  /**
+   * @param skipWhitespace whether the digits may be separated from what
+   * comes before
+   */
+  private boolean scanDigits(boolean skipWhitespace) {
+
+    if (skipWhitespace)
+      peek();
+
+    value = 0;
+    digits = 0;
+
+    while (scan < scanEnd) {
+
+      int b = buffer.get(scan) - '0';
+
+      if ((b < 0) || (b > 9))
+        break;
+
+      value = value*10 + b;
+      digits++;
+      scan++;
+    }
+
+    return digits > 0;
+  }
+
+  private void skipWhitespace() {
+    while (pos < end) {
+      byte b = buffer.get(pos);
+      if ((b != ' ') && (b != '\t') && (b != '\n') && (b != '\r'))
+        return;
+      pos++;
+    }
+  }
+
+  /**
+   * @return the position of the next c from start on, end if there is none
+   */
+  private int indexOf(char c, int start) {
+
+    for (int p = start; p < end; p++)
+      if (buffer.get(p) == c)
+        return p;
+
+    return end;
+  }
+
+  /**
+   * @return the line number at a position, counted like SimpleCharStream
+   * does. Positions have to be asked for in increasing order.
+   */
+  private int lineAt(int p) {
+
+    for ( ; linePos < p; linePos++) {
+
+      byte b = buffer.get(linePos);
+
+      if (b == '\r') {
+        line++;
+        prevCR = true;
+      } else {
+        if ((b == '\n') && !prevCR)
+          line++;
+        prevCR = false;
+      }
+    }
+
+    return line;
+  }
+
+  private void delegate(int start, int stop) {
+
+    if (delegateStart < 0)
+      delegateStart = start;
+
+    delegateEnd = stop;
+  }
+
+  private void flushDelegated() throws ParseException {
+
+    if (delegateStart < 0)
+      return;
+
+    byte[] bytes = new byte[delegateEnd - delegateStart];
+
+    ByteBuffer chunk = buffer.duplicate();
+    chunk.position(delegateStart);
+    chunk.get(bytes);
+
+    SimpleCharStream stream =
+      new SimpleCharStream(new ByteArrayInputStream(bytes),
+                           lineAt(delegateStart), 1);
+
+    if (parser == null) {
+      parser = new Parser(new ParserTokenManager(stream));
+      parser.setSimulator(simulator);
+    } else {
+      parser.ReInit(new ParserTokenManager(stream));
+    }
+
+    parser.Input();
+
+    delegateStart = -1;
+  }
+
+  private final Simulator simulator;
+  private Parser parser = null;
+
+  private ByteBuffer buffer;
+  private int pos;
+  private int end;
+
+  private int line;
+  private int linePos;
+  private boolean prevCR;
+
+  private int delegateStart;
+  private int delegateEnd;
+
+  // the block being scanned
+  private int scan;
+  private int scanEnd;
+  private int value;
+  private int digits;
+
+  private int seq;
+  private int gCode;
+  private int dCode;
+  private int dCodeDigits;
+  private boolean dCodeFlash;
+  private int mCode;
+  private int numCoords;
+
+  private int x, xDigits;
+  private int y, yDigits;
+  private int i, iDigits;
+  private int j, jDigits;
+}
@@ -15,8 +15,10 @@ public class Parser implements ParserConstants {
 
 	public static void main(String args[]) throws ParseException {
 		Parser parser = new Parser(System.in);
-		parser.setSimulator(new Simulator());
+		Simulator simulator = new Simulator();
+		parser.setSimulator(simulator);
 		parser.Input();
+		simulator.endOfProgram();
 	}
 
 	private static double getModifier(List<Double> modifiers, int index) {
@@ -271,7 +273,7 @@ public class Parser implements ParserConstants {
 			break;
 		case 26:
 			jj_consume_token(26);
-			simulator.setMode(Simulator.LINEAR);
+			simulator.endPolygon();
 			break;
 		case 27:
 			jj_consume_token(27);
@@ -975,11 +977,10 @@ public class Parser implements ParserConstants {
 			;
 		}
 		jj_consume_token(CODE_DELIM);
-		System.err.println("WARNING: ignoring step and repeat SR" +
-				((x != null) ? ("X" + x.image) : "") +
-				((y != null) ? ("Y" + y.image) : "") +
-				((!Double.isNaN(i)) ? ("I" + i) : "") +
-				((!Double.isNaN(j)) ? ("J" + j) : ""));
+		simulator.stepAndRepeat((x != null) ? Integer.parseInt(x.image) : 1,
+				(y != null) ? Integer.parseInt(y.image) : 1,
+				(!Double.isNaN(i)) ? i : 0.0,
+				(!Double.isNaN(j)) ? j : 0.0);
 	}
 
 	final public void ApertureDescription() throws ParseException {
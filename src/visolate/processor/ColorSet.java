@@ -0,0 +1,48 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+
+package visolate.processor;
+
+/**
+ * A set of 24 bit RGB colors, one bit per color. Looking up a pixel takes
+ * a shift and a mask. Ints are read and written atomically, so contains()
+ * may run alongside add() without locking; it just may not see a color
+ * which is being added right then.
+ */
+public class ColorSet {
+
+  public static final int NUM_COLORS = 1 << 24;
+
+  public boolean contains(int color) {
+    color &= 0xffffff;
+    return (bits[color >>> 5] & (1 << (color & 0x1f))) != 0;
+  }
+
+  /**
+   * Must not be called by more than one thread at a time.
+   */
+  public void add(int color) {
+    color &= 0xffffff;
+    bits[color >>> 5] |= 1 << (color & 0x1f);
+  }
+
+  private final int[] bits = new int[NUM_COLORS >>> 5];
+}
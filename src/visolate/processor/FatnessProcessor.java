@@ -31,7 +31,8 @@ public class FatnessProcessor extends Processor {
     super(visolate);
   }
 
-  public void processTile(int r, int c,
+  public void processTile(BufferedImage tile,
+                          int r, int c,
                           int ulx, int uly,
                           int width, int height,
                           double left, double bottom,
@@ -47,47 +48,50 @@ public class FatnessProcessor extends Processor {
     if (width < 2)
       return;
 
-    try {
+    int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
 
-//      display.getStill(tile);
-      tile = display.getStill(); //work around j3d bug
-      buffer = tile.getRaster().getDataBuffer(); //work around j3d bug
+    // counted by net index, added to the nets when the tile is done
+    int[] areaPixels = new int[netsByIndex.length];
+    int tileMisses = 0;
 
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
+    // runs of one color are looked up once
+    int runColor = 0;
+    Net runNet = null;
 
-          int color = getPixel(x, y) & 0xffffff;
+    for (int y = 0; y < height; y++) {
 
-          if (color == 0)
-            continue;
+      for (int x = 0; x < width; x++) {
 
-          Net net = model.getNet(color);
+        int color = pixels[y*canvasWidthPels + x] & 0xffffff;
 
-          if (net != null)
-            net.incrementAreaPixels();
-          else
-            misses++;
+        if (color == 0)
+          continue;
 
-          if (thread.isInterrupted())
-            return;
+        if (color != runColor) {
+          runColor = color;
+          runNet = model.getNet(color);
         }
+
+        if (runNet != null)
+          areaPixels[runNet.getIndex()]++;
+        else
+          tileMisses++;
       }
 
-    } catch (InterruptedException e) {
-      thread.interrupt(); //reset interrupt status
+      if (thread.isInterrupted())
+        return;
     }
-  }
 
-  private int getPixel(int x, int y) {
-    return buffer.getElem(y*canvasWidthPels + x);
+    synchronized (this) {
+      for (int i = 0; i < areaPixels.length; i++)
+        if ((areaPixels[i] > 0) && (netsByIndex[i] != null))
+          netsByIndex[i].addAreaPixels(areaPixels[i]);
+      misses += tileMisses;
+    }
   }
 
   protected void processStarted() {
 
-    tile = display.makeBufferedImage(canvasWidthPels, canvasHeightPels);
-    Raster raster = tile.getRaster();
-    buffer = raster.getDataBuffer();
-
     // The sender will restore these when done.
     model.enableBorderGeometry(false);
     model.enableLineGeometry(false);
@@ -96,15 +100,21 @@ public class FatnessProcessor extends Processor {
 
     Collection<Net> nets = model.getNets();
 
+    int numIndices = 0;
+    for (Net net : nets) {
+      numIndices = Math.max(numIndices, net.getIndex() + 1);
+    }
+
+    netsByIndex = new Net[numIndices];
+
     for (Net net :nets) {
       net.resetArea(dpi);
+      netsByIndex[net.getIndex()] = net;
     }
   }
 
   protected void processCompleted() {
 
-    tile = null;
-
     System.out.println(misses + " misses");
 
     Collection<Net> nets = model.getNets();
@@ -135,9 +145,7 @@ public class FatnessProcessor extends Processor {
     System.out.println("avg fatness = " + avg);
   }
 
-  protected BufferedImage tile = null;
-
-  private DataBuffer buffer;
-
   private int misses = 0;
+
+  private Net[] netsByIndex;
 }
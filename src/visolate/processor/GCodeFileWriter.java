@@ -21,12 +21,12 @@
 package visolate.processor;
 
 import java.io.*;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.NumberFormat;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
 
 import javax.vecmath.Color3f;
 import javax.vecmath.Point2d;
@@ -36,11 +36,16 @@ import javax.vecmath.Point3f;
 public class GCodeFileWriter {
 
   /**
-   * This is the number format used for all numbers in the gcode.
+   * All numbers in the gcode get up to this many fraction digits, trailing
+   * zeros are left away.
    */
-  private static final NumberFormat gCodeFormat =
-      new DecimalFormat("###.#####", new DecimalFormatSymbols(Locale.ENGLISH));
+  private static final int FRACTION_DIGITS = 5;
+  private static final long FRACTION_SCALE = 100000L;
+  private static final double TIE_EPSILON = 1.0e-6;
   private static final double MMPERINCH = 25.4;
+  private static final double ARC_PREVIEW_STEP = Math.PI/16.0;
+
+  private static final int BUFFER_SIZE = 64*1024;
 
   private static final Color3f G_CODE_COLOR_RAPID = new Color3f(1.0f, 0.0f, 0.0f);
   private static final Color3f G_CODE_COLOR_PLUNGE = new Color3f(0.0f, 0.0f, 1.0f);
@@ -50,11 +55,44 @@ public class GCodeFileWriter {
   }
 
   public void open(final File outputFile) throws IOException {
-    out = new FileWriter(outputFile);
+    open(new FileOutputStream(outputFile));
+  }
+
+  /**
+   * Writes to any stream, e.g. a pipe to a sender feeding the machine.
+   * Call flush() to push out what was written so far.
+   */
+  public void open(final OutputStream stream) {
+    out = stream;
+    count = 0;
+  }
+
+  public void open(final WritableByteChannel channel) {
+    open(Channels.newOutputStream(channel));
+  }
+
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
   }
 
   public void close() throws IOException {
+    flushBuffer();
     out.close();
+    out = null;
+  }
+
+  /**
+   * If set to false, no strokes for previewing the G-code are collected.
+   */
+  private boolean collectStrokes = true;
+
+  public boolean getCollectStrokes() {
+    return collectStrokes;
+  }
+
+  public void setCollectStrokes(final boolean collectStrokes) {
+    this.collectStrokes = collectStrokes;
   }
 
   /**
@@ -182,19 +220,19 @@ public class GCodeFileWriter {
   public void preAmble() throws IOException {
 
     if (isMetric) {
-      out.write("G21\n");    // millimeters
+      write("G21\n");    // millimeters
     } else {
-      out.write("G20\n");    // inches
+      write("G20\n");    // inches
     }
-    out.write("G17\n");     // X-Y plane
-    out.write("G40\nG49\n"); // Cancel tool lengh & cutter dia compensation
+    write("G17\n");     // X-Y plane
+    write("G40\nG49\n"); // Cancel tool lengh & cutter dia compensation
     //    w.write("G53\n");     // Motion in machine co-ordinate system
-    out.write("G80\n");    // Cancel any existing motion cycle
+    write("G80\n");    // Cancel any existing motion cycle
 
     if (isAbsolute) {
-      out.write("G90\n");    // Absolute distance mode
+      write("G90\n");    // Absolute distance mode
     } else {
-      out.write("G91\n");    // Relative distance mode
+      write("G91\n");    // Relative distance mode
     }
 
     currentPosition = new Point3d(0.0, 0.0, 0.0);
@@ -206,8 +244,8 @@ public class GCodeFileWriter {
 
     cutterUp();
 
-    out.write("M5\n"); // Spindle Stop
-    out.write("M2\n"); // End of program
+    write("M5\n"); // Spindle Stop
+    write("M2\n"); // End of program
   }
 
   /**
@@ -217,15 +255,17 @@ public class GCodeFileWriter {
    */
   public void cutterUp() throws IOException {
 
+    write("G0 Z");
     if (isAbsolute) {
-      out.write("G0 Z" + gCodeFormat.format(zClearance) + "\n");
+      write(zClearance);
     }
     else {
-      out.write("G0 Z" + gCodeFormat.format(zCuttingHeight - zClearance) + "\n");
+      write(zCuttingHeight - zClearance);
     }
+    write('\n');
 
     currentPosition.z = zClearance;
-    gCodeStrokes.add(new GCodeStroke(currentPosition, G_CODE_COLOR_RAPID));
+    addStroke(G_CODE_COLOR_RAPID);
   }
 
   /**
@@ -235,18 +275,20 @@ public class GCodeFileWriter {
    */
   public void cutterDown() throws IOException {
 
+    write("G1 Z");
     if (isAbsolute) {
-      out.write("G1 Z" + gCodeFormat.format(zCuttingHeight) +
-                " F" + gCodeFormat.format(plungeFeedrate) + "\n");
+      write(zCuttingHeight);
     }
     else {
-      out.write("G1 Z" + gCodeFormat.format(zClearance - zCuttingHeight) +
-                " F" + gCodeFormat.format(plungeFeedrate) + "\n");
+      write(zClearance - zCuttingHeight);
     }
+    write(" F");
+    write(plungeFeedrate);
+    write('\n');
 
     currentPosition.z = zCuttingHeight;
     currentFeedrate = plungeFeedrate;
-    gCodeStrokes.add(new GCodeStroke(currentPosition, G_CODE_COLOR_PLUNGE));
+    addStroke(G_CODE_COLOR_PLUNGE);
   }
 
   /**
@@ -257,20 +299,18 @@ public class GCodeFileWriter {
    * @throws IOException
    */
   public void rapidMovement(final Point2d target) throws IOException {
+    rapidMovement(target.x, target.y);
+  }
 
-    if (isAbsolute) {
-      out.write("G0 X" + gCodeFormat.format(convertUnits(target.x) + xOffset) +
-                " Y" + gCodeFormat.format(convertUnits(target.y) + yOffset));
-    }
-    else {
-      out.write("G0 X" + gCodeFormat.format(convertUnits(target.x - currentPosition.x)) +
-                " Y" + gCodeFormat.format(convertUnits(target.y - currentPosition.y)));
-    }
-    out.write("\n");
+  public void rapidMovement(final double x, final double y) throws IOException {
 
-    currentPosition.x = target.x;
-    currentPosition.y = target.y;
-    gCodeStrokes.add(new GCodeStroke(currentPosition, G_CODE_COLOR_RAPID));
+    write("G0");
+    writeXY(x, y);
+    write('\n');
+
+    currentPosition.x = x;
+    currentPosition.y = y;
+    addStroke(G_CODE_COLOR_RAPID);
   }
 
   /**
@@ -281,24 +321,184 @@ public class GCodeFileWriter {
    * @throws IOException
    */
   public void linearMovement(final Point2d target) throws IOException {
+    linearMovement(target.x, target.y);
+  }
+
+  public void linearMovement(final double x, final double y) throws IOException {
+
+    write("G1");
+    writeXY(x, y);
+    writeMillingFeedrate();
+    write('\n');
+
+    currentPosition.x = x;
+    currentPosition.y = y;
+    addStroke(G_CODE_COLOR_MILLING);
+  }
+
+  /**
+   * Add a G-code for a circular movement at milling feedrate.
+   *
+   * @param x, y where the machine should move
+   * @param i, j the center of the arc, relative to the current position
+   * @param counterclockwise G3 if set, else G2
+   *
+   * @throws IOException
+   */
+  public void arcMovement(final double x, final double y,
+                          final double i, final double j,
+                          final boolean counterclockwise) throws IOException {
+
+    write(counterclockwise ? "G3" : "G2");
+    writeXY(x, y);
+    write(" I");
+    write(convertUnits(i));
+    write(" J");
+    write(convertUnits(j));
+    writeMillingFeedrate();
+    write('\n');
+
+    if (collectStrokes) {
+
+      // The preview only knows straight strokes.
+      double cx = currentPosition.x + i;
+      double cy = currentPosition.y + j;
+      double r = Math.sqrt(i*i + j*j);
+
+      double start = Math.atan2(-j, -i);
+      double sweep = Math.atan2(y - cy, x - cx) - start;
+
+      if (counterclockwise && (sweep < 0.0))
+        sweep += 2.0*Math.PI;
+      else if (!counterclockwise && (sweep > 0.0))
+        sweep -= 2.0*Math.PI;
+
+      int steps = (int) Math.ceil(Math.abs(sweep)/ARC_PREVIEW_STEP);
+
+      for (int k = 1; k < steps; k++) {
+        double angle = start + sweep*k/steps;
+        currentPosition.x = cx + r*Math.cos(angle);
+        currentPosition.y = cy + r*Math.sin(angle);
+        addStroke(G_CODE_COLOR_MILLING);
+      }
+    }
+
+    currentPosition.x = x;
+    currentPosition.y = y;
+    addStroke(G_CODE_COLOR_MILLING);
+  }
 
+  private void writeMillingFeedrate() throws IOException {
+    if (currentFeedrate != millingFeedrate) {
+      write(" F");
+      write(millingFeedrate);
+      currentFeedrate = millingFeedrate;
+    }
+  }
+
+  private void writeXY(final double x, final double y) throws IOException {
+
+    write(" X");
     if (isAbsolute) {
-      out.write("G1 X" + gCodeFormat.format(convertUnits(target.x) + xOffset) +
-                " Y" + gCodeFormat.format(convertUnits(target.y) + yOffset));
+      write(convertUnits(x) + xOffset);
     }
     else {
-      out.write("G1 X" + gCodeFormat.format(convertUnits(target.x - currentPosition.x)) +
-                " Y" + gCodeFormat.format(convertUnits(target.y - currentPosition.y)));
+      write(convertUnits(x - currentPosition.x));
     }
-    if (currentFeedrate != millingFeedrate) {
-      out.write(" F" + gCodeFormat.format(millingFeedrate));
-      currentFeedrate = millingFeedrate;
+
+    write(" Y");
+    if (isAbsolute) {
+      write(convertUnits(y) + yOffset);
+    }
+    else {
+      write(convertUnits(y - currentPosition.y));
     }
-    out.write("\n");
+  }
 
-    currentPosition.x = target.x;
-    currentPosition.y = target.y;
-    gCodeStrokes.add(new GCodeStroke(currentPosition, G_CODE_COLOR_MILLING));
+  private void addStroke(final Color3f color) {
+    if (collectStrokes)
+      gCodeStrokes.add(new GCodeStroke(currentPosition, color));
+  }
+
+  private void write(final char c) throws IOException {
+
+    if (count == buffer.length)
+      flushBuffer();
+
+    buffer[count++] = (byte) c;
+  }
+
+  private void write(final String s) throws IOException {
+    for (int i = 0; i < s.length(); i++)
+      write(s.charAt(i));
+  }
+
+  /**
+   * Writes a number rounded to FRACTION_DIGITS fraction digits, without
+   * trailing zeros, straight into the buffer.
+   */
+  private void write(final double value) throws IOException {
+
+    // sign, 19 digits of a long and the decimal point
+    if (count + 21 > buffer.length)
+      flushBuffer();
+
+    double product = Math.abs(value)*FRACTION_SCALE;
+    long scaled = Math.round(product);
+
+    // DecimalFormat rounded the exact value half even. Only close to a tie
+    // can that differ from rounding the product half up.
+    if (Math.abs(product - Math.floor(product) - 0.5) < TIE_EPSILON)
+      scaled = new BigDecimal(Math.abs(value))
+        .setScale(FRACTION_DIGITS, RoundingMode.HALF_EVEN)
+        .unscaledValue().longValue();
+
+    if ((value < 0.0) && (scaled != 0))
+      buffer[count++] = '-';
+
+    long integer = scaled/FRACTION_SCALE;
+    long fraction = scaled%FRACTION_SCALE;
+
+    int start = count;
+    do {
+      buffer[count++] = (byte) ('0' + (integer%10));
+      integer /= 10;
+    } while (integer > 0);
+    reverse(start);
+
+    if (fraction == 0)
+      return;
+
+    int digits = FRACTION_DIGITS;
+    while (fraction%10 == 0) {
+      fraction /= 10;
+      digits--;
+    }
+
+    buffer[count++] = '.';
+
+    start = count;
+    for (int i = 0; i < digits; i++) {
+      buffer[count++] = (byte) ('0' + (fraction%10));
+      fraction /= 10;
+    }
+    reverse(start);
+  }
+
+  /**
+   * Digits come out least significant first, this turns them around.
+   */
+  private void reverse(final int start) {
+    for (int i = start, j = count-1; i < j; i++, j--) {
+      byte b = buffer[i];
+      buffer[i] = buffer[j];
+      buffer[j] = b;
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    out.write(buffer, 0, count);
+    count = 0;
   }
 
   private double convertUnits(final double x) {
@@ -308,7 +508,10 @@ public class GCodeFileWriter {
     return x;
   }
 
-  private FileWriter out;
+  private OutputStream out;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int count = 0;
 
   private Point3d currentPosition;
   private double currentFeedrate;
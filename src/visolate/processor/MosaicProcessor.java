@@ -32,7 +32,8 @@ public class MosaicProcessor extends Processor {
     super(visolate);
   }
 
-  public void processTile(int r, int c,
+  public void processTile(BufferedImage tile,
+                          int r, int c,
                           int ulx, int uly,
                           int width, int height,
                           double left, double bottom,
@@ -48,11 +49,8 @@ public class MosaicProcessor extends Processor {
     AffineTransform transform = new AffineTransform();
     transform.translate(ulx, uly);
 
-    try {
-//      mosaicG2D.drawRenderedImage(display.getStill(tile), transform); //work around j3d bug
-      mosaicG2D.drawRenderedImage(display.getStill(), transform);
-    } catch (InterruptedException e) {
-      thread.interrupt(); //reset interrupt status
+    synchronized (mosaic) {
+      mosaicG2D.drawRenderedImage(tile, transform);
     }
   }
 
@@ -64,22 +62,19 @@ public class MosaicProcessor extends Processor {
     System.out.println("mosaic: " + mosaicWidth + " x " + mosaicHeight);
     System.out.println("tile: " + canvasWidthPels + " x " + canvasHeightPels);
 
-    mosaic = display.makeBufferedImage(mosaicWidth, mosaicHeight);
-    tile = display.makeBufferedImage(canvasWidthPels, canvasHeightPels);
+    mosaic = renderer.makeBufferedImage(mosaicWidth, mosaicHeight);
     mosaicG2D = (Graphics2D) mosaic.getGraphics();
   }
 
   protected void processCompleted() {
     mosaicG2D.dispose();
     mosaicG2D = null;
-    tile = null;
   }
 
   protected int mosaicWidth;
   protected int mosaicHeight;
 
   protected BufferedImage mosaic = null;
-  protected BufferedImage tile = null;
 
   protected Graphics2D mosaicG2D = null;
 }
@@ -0,0 +1,263 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+package visolate.processor;
+
+import java.util.Arrays;
+
+/**
+ * A grid of buckets over both ends of a set of paths, for finding the path
+ * end closest to the cutter. Ends are numbered 2*path for the start and
+ * 2*path + 1 for the end of a path. Taking a path removes both of its ends.
+ *
+ * The grid is built for about two ends per bucket and rebuilt for the
+ * remaining ends whenever most of them are gone, so searches stay short
+ * when only a few scattered paths are left.
+ */
+public class PathEndIndex {
+
+  public static final int ENDS_PER_CELL = 2;
+
+  public PathEndIndex(double[] x, double[] y) {
+
+    this.x = x;
+    this.y = y;
+
+    taken = new boolean[x.length/2];
+    remaining = taken.length;
+
+    build();
+  }
+
+  public int numRemaining() {
+    return remaining;
+  }
+
+  /**
+   * Finds the path end closest to (px, py) and removes its path.
+   *
+   * @return the number of the closest end, -1 if no path is left
+   */
+  public int takeClosest(double px, double py) {
+
+    if (remaining == 0)
+      return -1;
+
+    if (remaining*4 < built)
+      build();
+
+    int[] best = new int[1];
+
+    search(px, py, best, new double[1]);
+
+    taken[best[0]/2] = true;
+    remaining--;
+
+    return best[0];
+  }
+
+  /**
+   * @return up to k ends of the remaining paths closest to (px, py),
+   * closest first
+   */
+  public int[] findNearest(double px, double py, int k) {
+
+    int[] best = new int[k];
+
+    int n = search(px, py, best, new double[k]);
+
+    return (n == k) ? best : Arrays.copyOf(best, n);
+  }
+
+  /**
+   * Collects the best.length ends closest to (px, py) into best, ordered
+   * by their squared distances in bestSquared.
+   *
+   * @return how many ends were found
+   */
+  private int search(double px, double py, int[] best, double[] bestSquared) {
+
+    int k = best.length;
+    int n = 0;
+
+    if (k == 0)
+      return 0;
+
+    int cx = clamp((int) Math.floor((px - minX)/cellSize), numCellsX);
+    int cy = clamp((int) Math.floor((py - minY)/cellSize), numCellsY);
+
+    int maxRing = Math.max(numCellsX, numCellsY);
+
+    for (int ring = 0; ring <= maxRing; ring++) {
+
+      // every cell in a ring is at least ring-1 cells away in x or y
+      if ((ring > 0) && (n == k)) {
+        double bound = (ring-1)*cellSize;
+        if (bound*bound > bestSquared[k-1])
+          break;
+      }
+
+      for (int j = cy-ring; j <= cy+ring; j++) {
+
+        if ((j < 0) || (j >= numCellsY))
+          continue;
+
+        boolean edge = (j == cy-ring) || (j == cy+ring);
+        int step = edge ? 1 : 2*ring;
+
+        for (int i = cx-ring; i <= cx+ring; i += step) {
+
+          if ((i < 0) || (i >= numCellsX))
+            continue;
+
+          int cell = j*numCellsX + i;
+
+          for (int e = cellStart[cell]; e < cellStart[cell+1]; e++) {
+
+            int end = cellEnds[e];
+
+            if (taken[end/2])
+              continue;
+
+            double dx = x[end] - px;
+            double dy = y[end] - py;
+            double d = dx*dx + dy*dy;
+
+            // insert into the sorted best list, ties by end number
+            int at = n;
+            while ((at > 0) &&
+                   ((d < bestSquared[at-1]) ||
+                    ((d == bestSquared[at-1]) && (end < best[at-1]))))
+              at--;
+
+            if (at >= k)
+              continue;
+
+            if (n < k)
+              n++;
+
+            for (int m = n-1; m > at; m--) {
+              best[m] = best[m-1];
+              bestSquared[m] = bestSquared[m-1];
+            }
+
+            best[at] = end;
+            bestSquared[at] = d;
+          }
+        }
+      }
+    }
+
+    return n;
+  }
+
+  private void build() {
+
+    minX = Double.POSITIVE_INFINITY;
+    minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+
+    for (int end = 0; end < x.length; end++) {
+
+      if (taken[end/2])
+        continue;
+
+      minX = Math.min(minX, x[end]);
+      minY = Math.min(minY, y[end]);
+      maxX = Math.max(maxX, x[end]);
+      maxY = Math.max(maxY, y[end]);
+    }
+
+    int numEnds = 2*remaining;
+
+    double width = maxX - minX;
+    double height = maxY - minY;
+
+    // no more cells than ends along either side, even for flat boards
+    cellSize = Math.max(Math.sqrt(width*height*ENDS_PER_CELL/numEnds),
+                        Math.max(width, height)*ENDS_PER_CELL/numEnds);
+
+    if (!(cellSize > 0.0))
+      cellSize = 1.0;
+
+    numCellsX = (int) Math.floor(width/cellSize) + 1;
+    numCellsY = (int) Math.floor(height/cellSize) + 1;
+
+    cellStart = new int[numCellsX*numCellsY + 1];
+    cellEnds = new int[numEnds];
+
+    for (int end = 0; end < x.length; end++)
+      if (!taken[end/2])
+        cellStart[cellOf(end) + 1]++;
+
+    for (int cell = 0; cell < numCellsX*numCellsY; cell++)
+      cellStart[cell+1] += cellStart[cell];
+
+    int[] fill = new int[numCellsX*numCellsY];
+
+    for (int end = 0; end < x.length; end++) {
+
+      if (taken[end/2])
+        continue;
+
+      int cell = cellOf(end);
+      cellEnds[cellStart[cell] + fill[cell]++] = end;
+    }
+
+    built = remaining;
+  }
+
+  private int cellOf(int end) {
+
+    int i = clamp((int) Math.floor((x[end] - minX)/cellSize), numCellsX);
+    int j = clamp((int) Math.floor((y[end] - minY)/cellSize), numCellsY);
+
+    return j*numCellsX + i;
+  }
+
+  private static int clamp(int i, int n) {
+
+    if (i < 0)
+      return 0;
+
+    if (i >= n)
+      return n-1;
+
+    return i;
+  }
+
+  private final double[] x;
+  private final double[] y;
+
+  private final boolean[] taken;
+  private int remaining;
+  private int built;
+
+  private double minX;
+  private double minY;
+  private double cellSize;
+
+  private int numCellsX;
+  private int numCellsY;
+
+  private int[] cellStart;
+  private int[] cellEnds;
+}
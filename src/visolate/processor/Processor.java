@@ -21,6 +21,8 @@
 package visolate.processor;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.awt.image.*;
 
 import javax.media.j3d.*;
 
@@ -39,18 +41,83 @@ public abstract class Processor {
   }
 
   public void start() {
+
+    final CountDownLatch finished = new CountDownLatch(1);
+    done = finished;
+
+    thread = new Thread() {
+
+        {
+          if (display != null)
+            setPriority(VirtualUniverse.getJ3DThreadPriority()-1);
+          setDaemon(true);
+        }
+
+        public void run() {
+          try {
+            process();
+          } finally {
+            finished.countDown();
+          }
+        }
+      };
+
     thread.start();
   }
 
-  public void stop() throws InterruptedException {
-    while (thread.isAlive()) {
-      thread.interrupt();
-//      System.out.println("interrupt!");
-      Thread.sleep(100);
+  /**
+   * Runs the process on the calling thread, returns when it is finished.
+   */
+  public void run() {
+
+    CountDownLatch finished = new CountDownLatch(1);
+    stopping = false;
+    done = finished;
+    thread = Thread.currentThread();
+
+    try {
+      process();
+    } finally {
+      thread = null;
+      synchronized (finished) {
+        finished.countDown();
+        // don't leave the caller interrupted by stop()
+        if (stopping)
+          Thread.interrupted();
+        stopping = false;
+      }
     }
   }
 
-  public abstract void processTile(int r, int c,
+  /**
+   * Interrupts the process until it has finished. The thread it ran on
+   * may live on, if it was the caller's.
+   */
+  public void stop() throws InterruptedException {
+
+    Thread thread = this.thread;
+    CountDownLatch done = this.done;
+
+    if ((thread == null) || (done == null))
+      return;
+
+    do {
+      synchronized (done) {
+        if (done.getCount() > 0) {
+          stopping = true;
+          thread.interrupt();
+//          System.out.println("interrupt!");
+        }
+      }
+    } while (!done.await(100, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Called once per tile. When the renderer is concurrent, this is called
+   * from several worker threads at once, each with its own tile.
+   */
+  public abstract void processTile(BufferedImage tile,
+                                   int r, int c,
                                    int ulx, int uly,
                                    int width, int height,
                                    double left, double bottom,
@@ -75,7 +142,9 @@ public abstract class Processor {
 
     visolate.enableControls(false);
     model.enableControls(false);
-    display.processStarted();
+
+    if (display != null)
+      display.processStarted();
 
     borderGeometryWas = model.isBorderGeometryEnabled();
     lineGeometryWas = model.isLineGeometryEnabled();
@@ -93,10 +162,14 @@ public abstract class Processor {
 //    System.out.println("gcode: " + gcodeGeometryWas);
 //    System.out.println("tool diameter: " + toolDiameterWas);
 
-    dpi = display.getDPI();
+    renderer = visolate.getRenderer();
+
+    dpi = renderer.getDPI();
 
     System.out.println("DPI: " + dpi);
 
+    model.setArcDPI(dpi);
+
     Rect b = model.getModelBounds();
 
     mosaicBounds = new Rect(b.x - MOSAIC_BORDER_PELS/((double) dpi),
@@ -104,11 +177,11 @@ public abstract class Processor {
                            b.width + 2.0*MOSAIC_BORDER_PELS/((double) dpi),
                            b.height + 2.0*MOSAIC_BORDER_PELS/((double) dpi));
 
-    canvasWidth = display.getVirtualCanvasWidth();
-    canvasHeight = display.getVirtualCanvasHeight();
+    canvasWidth = renderer.getVirtualCanvasWidth();
+    canvasHeight = renderer.getVirtualCanvasHeight();
 
-    canvasWidthPels = display.getCanvasWidth();
-    canvasHeightPels = display.getCanvasHeight();
+    canvasWidthPels = renderer.getCanvasWidth();
+    canvasHeightPels = renderer.getCanvasHeight();
 
     modelWidth = mosaicBounds.width;
     modelHeight = mosaicBounds.height;
@@ -126,98 +199,212 @@ public abstract class Processor {
 
     processStarted();
 
-    for (int r = 0; r < numRows; r++) {
-      for (int c = 0; c < numCols; c++) {
+    int numThreads = visolate.getNumThreads();
 
-        double left = c*canvasWidth;
+    if (renderer.isConcurrent() && (numThreads > 1) && (numRows*numCols > 1))
+      processTilesConcurrently(numThreads);
+    else
+      processTilesSequentially();
 
-        double top = modelHeight - r*canvasHeight;
+    if (thread.isInterrupted()) {
 
-        double right = left + canvasWidth;
-        if (right > mosaicBounds.width)
-          right = mosaicBounds.width;
+      processInterrupted();
 
-        double bottom = top - canvasHeight;
-        if (bottom < 0.0)
-          bottom = 0.0;
+      model.setVoronoiCones(true);
 
-//        int ulx = (int) Math.ceil(left*((double) dpi));
-//        int uly = (int) Math.ceil((modelHeight-top)*((double) dpi));
+      visolate.enableControls(true);
+      model.enableControls(true);
 
-        int ulx = c*canvasWidthPels;
-        int uly = r*canvasHeightPels;
+      if (display != null)
+        display.processFinished();
 
-        int lrx = ulx+canvasWidthPels;
-        if (lrx > modelWidthPels)
-          lrx = modelWidthPels;
+      visolate.processFinished();
 
-        int lry = uly+canvasHeightPels;
-        if (lry > modelHeightPels)
-          lry = modelHeightPels;
+      long endTime = System.currentTimeMillis();
+      System.out.println((new Date(endTime)).toString() +
+                         ": " + processName + " interrupted " +
+                         "(" + (endTime-startTime) + "ms)");
+      return;
+    }
 
-        int width = lrx-ulx;
-        int height = lry-uly;
+    processCompleted();
 
-        left += mosaicBounds.x;
-        bottom += mosaicBounds.y;
-        right += mosaicBounds.x;
-        top += mosaicBounds.y;
+    model.setToolDiameter(toolDiameterWas);
+    model.setTranslucent2D(wasTranslucent);
+    model.enableGCodeGeometry(gcodeGeometryWas);
+    model.enableFlatGeometry(flatGeometryWas);
+    model.enableVoronoiGeometry(voronoiGeometryWas);
+    model.setVoronoiCones(true);
+    model.enableLineGeometry(lineGeometryWas);
+    model.enableBorderGeometry(borderGeometryWas);
+
+    visolate.enableControls(true);
+    model.enableControls(true);
+
+    if (display != null)
+      display.processFinished();
+
+    visolate.processFinished();
+
+    long endTime = System.currentTimeMillis();
+    System.out.println((new Date(endTime)).toString() +
+                       ": " + processName + " finished (" +
+                       (endTime-startTime) + "ms)");
+  }
 
-        double cx = left + canvasWidth/2;
-        double cy = top - canvasHeight/2;
+  private void processTilesSequentially() {
 
-        display.setCenter(cx, cy);
+    for (int r = 0; r < numRows; r++) {
+      for (int c = 0; c < numCols; c++) {
 
         try {
-          display.waitForViewUpdate();
+          processTile(r, c);
         } catch (InterruptedException e) {
           thread.interrupt(); //re-set interrupt status
         }
 
-        processTile(r, c,
-                    ulx, uly,
-                    width, height,
-                    left, bottom, right, top);
+        if (thread.isInterrupted())
+          return;
+      }
+    }
+  }
 
-        if (thread.isInterrupted()) {
+  /**
+   * Renders and processes the tiles on a pool of numThreads workers. This
+   * requires a renderer which can render several tiles at once and
+   * processTile() implementations which can be called concurrently.
+   */
+  private void processTilesConcurrently(int numThreads) {
 
-          processInterrupted();
+    System.out.println("processing tiles on " + numThreads + " threads");
 
-          visolate.enableControls(true);
-          model.enableControls(true);
-          display.processFinished();
-          visolate.processFinished();
+    ExecutorService executor = newWorkerPool(numThreads, "visolate tile worker");
 
-          long endTime = System.currentTimeMillis();
-          System.out.println((new Date(endTime)).toString() +
-                             ": " + processName + " interrupted " +
-                             "(" + (endTime-startTime) + "ms)");
-          return;
+    List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+
+    for (int r = 0; r < numRows; r++) {
+      for (int c = 0; c < numCols; c++) {
+
+        final int row = r;
+        final int col = c;
+
+        tasks.add(executor.submit(new Callable<Object>() {
+            public Object call() throws InterruptedException {
+              if (!thread.isInterrupted())
+                processTile(row, col);
+              return null;
+            }
+          }));
+      }
+    }
+
+    executor.shutdown();
+
+    try {
+      for (Future<Object> task : tasks)
+        task.get();
+    } catch (InterruptedException e) {
+      thread.interrupt(); //re-set interrupt status
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof InterruptedException) {
+        thread.interrupt();
+      } else {
+        shutdownNow(executor);
+        throw new RuntimeException(e.getCause());
+      }
+    }
+
+    if (thread.isInterrupted())
+      shutdownNow(executor);
+  }
+
+  /**
+   * A pool of daemon threads with the priority of the process thread.
+   */
+  protected ExecutorService newWorkerPool(int numThreads, final String name) {
+
+    final int priority = thread.getPriority();
+
+    return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread worker = new Thread(r, name);
+          worker.setPriority(priority);
+          worker.setDaemon(true);
+          return worker;
         }
+      });
+  }
+
+  /**
+   * Stops the workers of a pool and waits until they are gone.
+   */
+  protected static void shutdownNow(ExecutorService executor) {
+
+    boolean interrupted = Thread.interrupted();
 
-        visolate.tickProgressBar();
+    executor.shutdownNow();
+
+    while (!executor.isTerminated()) {
+      try {
+        executor.awaitTermination(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        interrupted = true;
       }
     }
 
-    processCompleted();
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
 
-    model.setToolDiameter(toolDiameterWas);
-    model.setTranslucent2D(wasTranslucent);
-    model.enableGCodeGeometry(gcodeGeometryWas);
-    model.enableFlatGeometry(flatGeometryWas);
-    model.enableVoronoiGeometry(voronoiGeometryWas);
-    model.enableLineGeometry(lineGeometryWas);
-    model.enableBorderGeometry(borderGeometryWas);
+  private void processTile(int r, int c) throws InterruptedException {
 
-    visolate.enableControls(true);
-    model.enableControls(true);
-    display.processFinished();
-    visolate.processFinished();
+    double left = c*canvasWidth;
 
-    long endTime = System.currentTimeMillis();
-    System.out.println((new Date(endTime)).toString() +
-                       ": " + processName + " finished (" +
-                       (endTime-startTime) + "ms)");
+    double top = modelHeight - r*canvasHeight;
+
+    double right = left + canvasWidth;
+    if (right > mosaicBounds.width)
+      right = mosaicBounds.width;
+
+    double bottom = top - canvasHeight;
+    if (bottom < 0.0)
+      bottom = 0.0;
+
+//    int ulx = (int) Math.ceil(left*((double) dpi));
+//    int uly = (int) Math.ceil((modelHeight-top)*((double) dpi));
+
+    int ulx = c*canvasWidthPels;
+    int uly = r*canvasHeightPels;
+
+    int lrx = ulx+canvasWidthPels;
+    if (lrx > modelWidthPels)
+      lrx = modelWidthPels;
+
+    int lry = uly+canvasHeightPels;
+    if (lry > modelHeightPels)
+      lry = modelHeightPels;
+
+    int width = lrx-ulx;
+    int height = lry-uly;
+
+    left += mosaicBounds.x;
+    bottom += mosaicBounds.y;
+    right += mosaicBounds.x;
+    top += mosaicBounds.y;
+
+    double cx = left + canvasWidth/2;
+    double cy = top - canvasHeight/2;
+
+    BufferedImage tile = renderer.renderTile(cx, cy);
+
+    processTile(tile,
+                r, c,
+                ulx, uly,
+                width, height,
+                left, bottom, right, top);
+
+    if (!thread.isInterrupted())
+      visolate.tickProgressBar();
   }
 
   protected void processStarted() {}
@@ -226,21 +413,14 @@ public abstract class Processor {
 
   protected void processCompleted() {}
 
-  protected Thread thread = new Thread() {
-
-        {
-          setPriority(VirtualUniverse.getJ3DThreadPriority()-1);
-          setDaemon(true);
-        }
-
-      public void run() {
-        process();
-      }
-    };
+  protected Thread thread = null;
+  private CountDownLatch done = null;
+  private boolean stopping = false;
 
   protected Visolate visolate;
   protected Model model;
   protected Display display;
+  protected Renderer renderer;
 
   protected Rect mosaicBounds;
 
@@ -62,13 +62,15 @@ public class SaveMosaic extends MosaicProcessor {
     imageWriter = (ImageWriter) it.next();
   }
 
-  public void processTile(int r, int c,
+  public void processTile(BufferedImage tile,
+                          int r, int c,
                           int ulx, int uly,
                           int width, int height,
                           double left, double bottom,
                           double right, double top) {
 
-    super.processTile(r, c,
+    super.processTile(tile,
+                      r, c,
                       ulx, uly,
                       width, height,
                       left, bottom, right, top);
@@ -96,7 +98,7 @@ public class SaveMosaic extends MosaicProcessor {
     if ((width == tile.getWidth()) && (height == tile.getHeight())) {
       saveFile(file, tile);
     } else {
-      BufferedImage cropTile  = display.makeBufferedImage(width, height);
+      BufferedImage cropTile  = renderer.makeBufferedImage(width, height);
       Graphics2D cropG2D = (Graphics2D) (cropTile.getGraphics());
       cropG2D.drawRenderedImage(tile, new AffineTransform());
       cropG2D.dispose();
@@ -114,7 +116,7 @@ public class SaveMosaic extends MosaicProcessor {
     saveFile(mosaicFile, mosaic);
   }
 
-  private void saveFile(File file, BufferedImage bufferedImage) {
+  private synchronized void saveFile(File file, BufferedImage bufferedImage) {
 
     if (imageWriter == null)
       return;
@@ -31,22 +31,10 @@ public class ToolpathNode {
 
     this.x = x;
     this.y = y;
-
-    locked = false;
-
-    hashCode = x^(y*31);
   }
 
   public int hashCode() {
-    return hashCode;
-  }
-
-  public void setIsLocked(boolean locked) {
-    this.locked = locked;
-  }
-
-  public boolean isLocked() {
-    return locked;
+    return x^(y*31);
   }
 
   public boolean equals(Object object) {
@@ -63,66 +51,6 @@ public class ToolpathNode {
     return "(" + x + ", " + y + ")";
   }
 
-  public int numNeighbors() {
-
-    int n = 0;
-
-    if (north != null)
-      n++;
-
-    if (south != null)
-      n++;
-
-    if (west != null)
-      n++;
-
-    if (east != null)
-      n++;
-
-    return n;
-  }
-
-  public ToolpathNode getNeighbor(int d) {
-    switch(d) {
-    case N:
-      return north;
-    case S:
-      return south;
-    case W:
-      return west;
-    case E:
-      return east;
-    default:
-      return null;
-    }
-  }
-
-  public void setNeighbor(int d, ToolpathNode n) {
-    switch(d) {
-    case N:
-      north = n;
-      break;
-    case S:
-      south = n;
-      break;
-    case W:
-      west = n;
-      break;
-    case E:
-      east = n;
-      break;
-    }
-  }
-
-  int hashCode;
-
   int x;
   int y;
-
-  boolean locked;
-
-  ToolpathNode north = null;
-  ToolpathNode south = null;
-  ToolpathNode west = null;
-  ToolpathNode east = null;
 }
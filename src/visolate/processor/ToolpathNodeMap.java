@@ -0,0 +1,246 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+package visolate.processor;
+
+import java.util.Arrays;
+
+/**
+ * The toolpath nodes of a mosaic, packed into an open addressing hash table.
+ * Each node is keyed by its pel coordinates packed into a long and carries a
+ * bit mask of its N, S, W and E neighbors, instead of being an object with
+ * four references.
+ *
+ * Nodes are never removed, tracing paths only clears neighbor bits.
+ */
+public class ToolpathNodeMap {
+
+  public static final int DEF_CAPACITY = 1024;
+
+  private static final long EMPTY = -1L;
+
+  public ToolpathNodeMap() {
+    this(DEF_CAPACITY);
+  }
+
+  public ToolpathNodeMap(int expectedSize) {
+
+    int capacity = DEF_CAPACITY;
+    while (capacity*3 < expectedSize*4)
+      capacity <<= 1;
+
+    allocate(capacity);
+  }
+
+  public static long key(int x, int y) {
+    return (((long) y) << 32) | (x & 0xffffffffL);
+  }
+
+  public static int keyX(long key) {
+    return (int) key;
+  }
+
+  public static int keyY(long key) {
+    return (int) (key >>> 32);
+  }
+
+  public static int bit(int d) {
+    return 1 << d;
+  }
+
+  public static int oppositeDir(int d) {
+    switch(d) {
+    case ToolpathNode.N:
+      return ToolpathNode.S;
+    case ToolpathNode.S:
+      return ToolpathNode.N;
+    case ToolpathNode.W:
+      return ToolpathNode.E;
+    case ToolpathNode.E:
+      return ToolpathNode.W;
+    default:
+      return -1;
+    }
+  }
+
+  public static int neighborX(int x, int d) {
+    switch(d) {
+    case ToolpathNode.W:
+      return x-1;
+    case ToolpathNode.E:
+      return x+1;
+    default:
+      return x;
+    }
+  }
+
+  public static int neighborY(int y, int d) {
+    switch(d) {
+    case ToolpathNode.N:
+      return y-1;
+    case ToolpathNode.S:
+      return y+1;
+    default:
+      return y;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return keys.length;
+  }
+
+  /**
+   * Adds a node without neighbors, if not yet there.
+   */
+  public void add(int x, int y) {
+    slot(key(x, y), true);
+  }
+
+  public boolean contains(int x, int y) {
+    return slot(key(x, y), false) >= 0;
+  }
+
+  /**
+   * Links (x, y) and its neighbor in direction d, adding both as needed.
+   */
+  public void connect(int x, int y, int d) {
+
+    int i = slot(key(x, y), true);
+    neighbors[i] |= bit(d);
+
+    int j = slot(key(neighborX(x, d), neighborY(y, d)), true);
+    neighbors[j] |= bit(oppositeDir(d));
+  }
+
+  /**
+   * Unlinks (x, y) and its neighbor in direction d.
+   */
+  public void disconnect(int x, int y, int d) {
+
+    int i = slot(key(x, y), false);
+    if (i >= 0)
+      neighbors[i] &= ~bit(d);
+
+    int j = slot(key(neighborX(x, d), neighborY(y, d)), false);
+    if (j >= 0)
+      neighbors[j] &= ~bit(oppositeDir(d));
+  }
+
+  /**
+   * @return the neighbor bit mask of (x, y), 0 if there is no such node
+   */
+  public int getNeighbors(int x, int y) {
+
+    int i = slot(key(x, y), false);
+
+    return (i >= 0) ? neighbors[i] : 0;
+  }
+
+  public static int numNeighbors(int mask) {
+    return Integer.bitCount(mask & 0xf);
+  }
+
+  /**
+   * @return the keys of all nodes, sorted by y, then x
+   */
+  public long[] getSortedKeys() {
+
+    long[] sorted = new long[size];
+
+    int n = 0;
+    for (int i = 0; i < keys.length; i++)
+      if (keys[i] != EMPTY)
+        sorted[n++] = keys[i];
+
+    Arrays.sort(sorted);
+
+    return sorted;
+  }
+
+  private int slot(long key, boolean create) {
+
+    int mask = keys.length - 1;
+
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+
+      if (keys[i] == key)
+        return i;
+
+      if (keys[i] == EMPTY) {
+
+        if (!create)
+          return -1;
+
+        if ((size + 1)*4 > keys.length*3) {
+          grow();
+          return slot(key, true);
+        }
+
+        keys[i] = key;
+        size++;
+
+        return i;
+      }
+    }
+  }
+
+  private void grow() {
+
+    long[] oldKeys = keys;
+    byte[] oldNeighbors = neighbors;
+
+    allocate(oldKeys.length*2);
+
+    int mask = keys.length - 1;
+
+    for (int j = 0; j < oldKeys.length; j++) {
+
+      if (oldKeys[j] == EMPTY)
+        continue;
+
+      int i = hash(oldKeys[j]) & mask;
+      while (keys[i] != EMPTY)
+        i = (i + 1) & mask;
+
+      keys[i] = oldKeys[j];
+      neighbors[i] = oldNeighbors[j];
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    neighbors = new byte[capacity];
+  }
+
+  private static int hash(long key) {
+    key *= 0x9e3779b97f4a7c15L;
+    return (int) (key ^ (key >>> 32));
+  }
+
+  private long[] keys;
+  private byte[] neighbors;
+
+  private int size = 0;
+}
@@ -20,10 +20,8 @@
 
 package visolate.processor;
 
-import java.awt.geom.Point2D;
-import java.awt.geom.Line2D;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import javax.media.j3d.Geometry;
 import javax.media.j3d.GeometryArray;
@@ -38,29 +36,42 @@ import visolate.processor.ToolpathsProcessor;
 import visolate.processor.ToolpathNode;
 import visolate.processor.GCodeFileWriter;
 
+/**
+ * One toolpath, a sequence of mosaic pel coordinates. The coordinates are
+ * kept in plain int arrays, the locked flags in a parallel boolean array.
+ */
 public class ToolpathPath {
 
   public static final double[] HORIZ_DIR_BIAS = {-1, 1, 1, -1};
   public static final double[] VERT_DIR_BIAS = {1, 1, -1, -1};
 
-  ToolpathPath(final ToolpathsProcessor processor, final ToolpathNode seed) {
+  public static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * Arcs replace at least this many straight segments.
+   */
+  public static final int MIN_ARC_SEGMENTS = 3;
+
+  ToolpathPath(final ToolpathsProcessor processor, int seedX, int seedY) {
 
     this.processor = processor;
 
-    path.add(seed);
+    ToolpathNodeMap nodes = processor.nodes;
 
     dir[HEAD] = -1;
     dir[TAIL] = -1;
 
-    switch (seed.numNeighbors()) {
+    int seed = nodes.getNeighbors(seedX, seedY);
+
+    switch (ToolpathNodeMap.numNeighbors(seed)) {
 
     case 0: {
-      return;
+      break;
     }
 
     case 1: {
       for (int i = 0; i < 4; i++) {
-        if (seed.getNeighbor(i) != null) {
+        if ((seed & ToolpathNodeMap.bit(i)) != 0) {
           dir[TAIL] = i;
           break;
         }
@@ -71,7 +82,7 @@ public class ToolpathPath {
     case 2: {
       boolean tailSet = false;
       for (int i = 0; i < 4; i++) {
-        if (seed.getNeighbor(i) != null) {
+        if ((seed & ToolpathNodeMap.bit(i)) != 0) {
           if (!tailSet) {
             dir[TAIL] = i;
             tailSet = true;
@@ -86,8 +97,8 @@ public class ToolpathPath {
 
     case 3: {
       for (int i = 0; i < 4; i++) {
-        if ((seed.getNeighbor(i) != null) &&
-            (seed.getNeighbor(oppositeDir(i)) != null)) {
+        if (((seed & ToolpathNodeMap.bit(i)) != 0) &&
+            ((seed & ToolpathNodeMap.bit(oppositeDir(i))) != 0)) {
           dir[TAIL] = i;
           dir[HEAD] = oppositeDir(i);
           break;
@@ -103,49 +114,93 @@ public class ToolpathPath {
     }
     }
 
-    while ((dir[TAIL] >= 0) && extendTail())
-      ;
+    // Trace the tail into this path and the head into a second one, then
+    // put the reversed head in front.
+    int[] tail = trace(seedX, seedY, TAIL);
+    int[] head = trace(seedX, seedY, HEAD);
+
+    int numHead = head.length/2;
+    int numTail = tail.length/2;
+
+    size = numHead + 1 + numTail;
+    x = new int[size];
+    y = new int[size];
+    locked = new boolean[size];
+
+    for (int i = 0; i < numHead; i++) {
+      x[numHead-1-i] = head[2*i];
+      y[numHead-1-i] = head[2*i+1];
+    }
 
-    while ((dir[HEAD] >= 0) && extendHead())
-      ;
+    x[numHead] = seedX;
+    y[numHead] = seedY;
 
+    for (int i = 0; i < numTail; i++) {
+      x[numHead+1+i] = tail[2*i];
+      y[numHead+1+i] = tail[2*i+1];
+    }
   }
 
   public void setStraightTolerance(final double tolerance) {
     straightTol = tolerance;
   }
 
-  private boolean extendTail() {
+  /**
+   * If set, optimize() replaces runs of nodes lying on a circle with arcs.
+   */
+  public void setFitArcs(final boolean fitArcs) {
+    this.fitArcs = fitArcs;
+  }
 
-    ToolpathNode next = getNext((ToolpathNode) path.getLast(), TAIL);
+  /**
+   * Follows the nodes from (startX, startY) in the given direction for as
+   * long as the path doesn't branch.
+   *
+   * @return the visited coordinates, x and y interleaved, without the start
+   */
+  private int[] trace(int startX, int startY, int whichDir) {
 
-    if (next == null)
-      return false;
+    int[] coords = new int[2*INITIAL_CAPACITY];
+    int n = 0;
 
-    path.addLast(next);
+    int cx = startX;
+    int cy = startY;
 
-    return true;
-  }
+    while (dir[whichDir] >= 0) {
 
-  private boolean extendHead() {
+      int d = getNextDir(cx, cy, whichDir);
 
-    ToolpathNode next = getNext((ToolpathNode) path.getFirst(), HEAD);
+      if (d < 0)
+        break;
 
-    if (next == null)
-      return false;
+      cx = ToolpathNodeMap.neighborX(cx, d);
+      cy = ToolpathNodeMap.neighborY(cy, d);
 
-    path.addFirst(next);
+      if (n == coords.length)
+        coords = Arrays.copyOf(coords, 2*n);
 
-    return true;
+      coords[n++] = cx;
+      coords[n++] = cy;
+    }
+
+    return Arrays.copyOf(coords, n);
   }
 
-  private ToolpathNode getNext(ToolpathNode n, int whichDir) {
+  /**
+   * @return the direction to continue in from (cx, cy), after unlinking
+   * the next node, or -1 if the path ends or branches here
+   */
+  private int getNextDir(int cx, int cy, int whichDir) {
+
+    ToolpathNodeMap nodes = processor.nodes;
 
     int d = dir[whichDir];
 
-    ToolpathNode next = n.getNeighbor(d);
+    int neighbors = nodes.getNeighbors(cx, cy);
+
+    if ((neighbors & ToolpathNodeMap.bit(d)) == 0) {
 
-    if (next == null) {
+      int next = -1;
 
       for (int i = 0; i < 4; i++) {
 
@@ -155,67 +210,42 @@ public class ToolpathPath {
         if (i == oppositeDir(d))
           continue;
 
-        ToolpathNode neighbor = n.getNeighbor(i);
-
-        if (neighbor != null) {
+        if ((neighbors & ToolpathNodeMap.bit(i)) != 0) {
 
-          if (next != null)
-            return null;
+          if (next >= 0)
+            return -1;
 
-          next = neighbor;
-          d = dir[whichDir] = i;
+          next = i;
         }
       }
-    }
-
-    if (next == null)
-      return null;
 
-    n.setNeighbor(d, null);
-    next.setNeighbor(oppositeDir(d), null);
+      if (next < 0)
+        return -1;
 
-    if (n.numNeighbors() == 0)
-      processor.nodes.remove(n);
+      d = dir[whichDir] = next;
+    }
 
-    if (next.numNeighbors() == 0)
-      processor.nodes.remove(next);
+    nodes.disconnect(cx, cy, d);
 
-    return next;
+    return d;
   }
 
   private int oppositeDir(int d) {
-    switch(d) {
-    case ToolpathNode.N:
-      return ToolpathNode.S;
-    case ToolpathNode.S:
-      return ToolpathNode.N;
-    case ToolpathNode.W:
-      return ToolpathNode.E;
-    case ToolpathNode.E:
-      return ToolpathNode.W;
-    default:
-      return -1;
-    }
+    return ToolpathNodeMap.oppositeDir(d);
   }
 
   public int numPathNodes() {
 
-    return path.size();
+    return size;
   }
 
   public double length() {
 
     double length = 0;
 
-    ToolpathNode prev = null;
-
-    for (ToolpathNode node : path) {
-
-      if (prev != null) {
-        length += Util.distance(processor.toModelX(prev.x), processor.toModelY(prev.y),
-                                processor.toModelX(node.x), processor.toModelY(node.y));
-      }
-      prev = node;
+    for (int i = 1; i < size; i++) {
+      length += Util.distance(processor.toModelX(x[i-1]), processor.toModelY(y[i-1]),
+                              processor.toModelX(x[i]), processor.toModelY(y[i]));
     }
 
     return length;
@@ -225,38 +255,31 @@ public class ToolpathPath {
 
     if (geometry == null) {
 
-      Color3f color = Net.toColor3f(processor.visolate.getDisplay().getRandomColor());
+      Color3f color = Net.toColor3f(processor.visolate.getRandomColor());
 
-      int vertexCount = path.size()*2;
+      int vertexCount = size*2;
 
       float[] coords = new float[vertexCount*6];
 
-      int i = 0;
-
-      ToolpathNode prev = null;
+      int j = 0;
 
-      for (ToolpathNode node : path) {
+      for (int i = 1; i < size; i++) {
 
-        if (prev != null) {
+        coords[j++] = color.x;
+        coords[j++] = color.y;
+        coords[j++] = color.z;
 
-          coords[i++] = color.x;
-          coords[i++] = color.y;
-          coords[i++] = color.z;
+        coords[j++] = processor.toModelX(x[i-1]);
+        coords[j++] = processor.toModelY(y[i-1]);
+        coords[j++] = Net.PATH_Z;
 
-          coords[i++] = processor.toModelX(prev.x);
-          coords[i++] = processor.toModelY(prev.y);
-          coords[i++] = Net.PATH_Z;
+        coords[j++] = color.x;
+        coords[j++] = color.y;
+        coords[j++] = color.z;
 
-          coords[i++] = color.x;
-          coords[i++] = color.y;
-          coords[i++] = color.z;
-
-          coords[i++] = processor.toModelX(node.x);
-          coords[i++] = processor.toModelY(node.y);
-          coords[i++] = Net.PATH_Z;
-        }
-
-        prev = node;
+        coords[j++] = processor.toModelX(x[i]);
+        coords[j++] = processor.toModelY(y[i]);
+        coords[j++] = Net.PATH_Z;
       }
 
       geometry = new LineArray(vertexCount,
@@ -278,25 +301,25 @@ public class ToolpathPath {
     final float[] normalColor = { 1.0f, 1.0f, 1.0f };
     final float[] fixedColor = { 1.0f, 0.0f, 0.0f };
 
-    int vertexCount = path.size();
+    int vertexCount = size;
     float[] coords = new float[vertexCount*6];
 
-    int i = 0;
+    int j = 0;
 
-    for (ToolpathNode node : path) {
-      if (node.locked) {
-        coords[i++] = fixedColor[0];
-        coords[i++] = fixedColor[1];
-        coords[i++] = fixedColor[2];
+    for (int i = 0; i < size; i++) {
+      if (locked[i]) {
+        coords[j++] = fixedColor[0];
+        coords[j++] = fixedColor[1];
+        coords[j++] = fixedColor[2];
       }
       else {
-        coords[i++] = normalColor[0];
-        coords[i++] = normalColor[1];
-        coords[i++] = normalColor[2];
+        coords[j++] = normalColor[0];
+        coords[j++] = normalColor[1];
+        coords[j++] = normalColor[2];
       }
-      coords[i++] = processor.toModelX(node.x);
-      coords[i++] = processor.toModelY(node.y);
-      coords[i++] = Net.PATH_Z;
+      coords[j++] = processor.toModelX(x[i]);
+      coords[j++] = processor.toModelY(y[i]);
+      coords[j++] = Net.PATH_Z;
     }
 
     GeometryArray pointGeometry = new PointArray(vertexCount,
@@ -310,157 +333,394 @@ public class ToolpathPath {
   }
 
   public ToolpathNode getStartNode() {
-    return (ToolpathNode) path.getFirst();
+    return new ToolpathNode(x[0], y[0]);
   }
 
   public ToolpathNode getEndNode() {
-    return (ToolpathNode) path.getLast();
+    return new ToolpathNode(x[size-1], y[size-1]);
   }
 
-  public void lockNode(ToolpathNode nodeToLock) {
+  /**
+   * Locks all nodes of this path which are in the given set.
+   */
+  public void lockNodes(ToolpathNodeMap nodesToLock) {
 
-    for (ToolpathNode node : path) {
-      if (node.equals(nodeToLock))
-        node.setIsLocked(true);
+    for (int i = 0; i < size; i++) {
+      if (nodesToLock.contains(x[i], y[i]))
+        locked[i] = true;
     }
   }
 
   public Point2d getStartPoint() {
+    return new Point2d(processor.toModelX(x[0]), processor.toModelY(y[0]));
+  }
 
-    ToolpathNode start = (ToolpathNode) path.getFirst();
-    return new Point2d(processor.toModelX(start.x), processor.toModelY(start.y));
+  public Point2d getEndPoint() {
+    return new Point2d(processor.toModelX(x[size-1]), processor.toModelY(y[size-1]));
   }
 
   public void writeGCode(GCodeFileWriter writer) throws IOException {
+    writeGCode(writer, false);
+  }
+
+  /**
+   * @param reversed cut from the end to the start of the path
+   */
+  public void writeGCode(GCodeFileWriter writer, boolean reversed)
+    throws IOException {
 
     writer.cutterUp();
 
-    boolean first = true;
+    for (int k = 0; k < size; k++) {
 
-    for (ToolpathNode node : path) {
-      Point2d p = new Point2d(processor.toModelX(node.x),
-                              processor.toModelY(node.y));
+      int i = reversed ? size-1-k : k;
 
-      if (first) {
-        writer.rapidMovement(p); //rapid to start
+      double px = processor.toModelX(x[i]);
+      double py = processor.toModelY(y[i]);
+
+      // the segment arriving at node i and the node it comes from
+      int segment = reversed ? i : i-1;
+      int from = reversed ? i+1 : i-1;
+
+      if (k == 0) {
+        writer.rapidMovement(px, py); //rapid to start
         writer.cutterDown();
-        first = false;
+      } else if ((arc != null) && arc[segment]) {
+        // model y runs opposite to pel y
+        writer.arcMovement(px, py,
+                           (centerX[segment] - x[from])/processor.dpi,
+                           (y[from] - centerY[segment])/processor.dpi,
+                           arcCCW[segment] != reversed);
       } else {
-        writer.linearMovement(p);
+        writer.linearMovement(px, py);
       }
     }
   }
 
   public void optimize() {
 
-    // TODO: Pre-optimize by removing nodes which are on a straight line.
-    //       Pretty simple, as such straight lines can be on X and Y only,
-    //       so if three consecutive nodes have the same X or the same Y value,
-    //       the middle one can be removed.
+    // Deviations are measured in pels, which saves converting every node.
+    double tol = straightTol*processor.dpi;
+
+    removeStraightNodes();
+
+    // This algorithm is known as Douglas-Peucker Line Approximation.
+    // It first lays a single segment from start to end, then looks whether
+    // all nodes in between are within tolerance. If not, the segment is
+    // split at the node with the farthest deviation and both halves are
+    // treated the same way, until all segments are within tolerance.
     //
-    //       Start and end of longer straight lines should be fixed at start
-    //       and end, so no almost-horizontal and almost-vertical lines appear?
+    // Locked nodes are always kept, so the segments between them are
+    // approximated independently. Pending segments are kept on a stack
+    // of index pairs instead of recursing.
 
-    LinkedList<ToolpathNode> optimizedPath = new LinkedList<ToolpathNode>();
-    optimizedPath.add(path.get(0));
+    boolean[] keep = new boolean[size];
+    keep[0] = true;
+    keep[size-1] = true;
 
-    // Proceed until there are no nodes left.
-    while (path.size() > 1) {
-      int end = 0;
+    int[] stack = new int[2*INITIAL_CAPACITY];
+    int top = 0;
 
-      // At most, a segment can go to the next locked node.
-      for (end = 1; end < path.size(); end++) {
-        if (path.get(end).isLocked())
-          break;
+    int start = 0;
+
+    for (int i = 1; i < size; i++) {
+
+      if (!locked[i] && (i < size-1))
+        continue;
+
+      keep[i] = true;
+
+      if (top + 2 > stack.length)
+        stack = Arrays.copyOf(stack, 2*stack.length);
+
+      stack[top++] = start;
+      stack[top++] = i;
+
+      start = i;
+    }
+
+    while (top > 0) {
+
+      int end = stack[--top];
+      int begin = stack[--top];
+
+      if (end - begin < 2)
+        continue;
+
+      int split = findSplit(begin, end, tol);
+
+      if (split < 0)
+        continue;
+
+      keep[split] = true;
+
+      if (top + 4 > stack.length)
+        stack = Arrays.copyOf(stack, 2*stack.length);
+
+      stack[top++] = begin;
+      stack[top++] = split;
+      stack[top++] = split;
+      stack[top++] = end;
+    }
+
+    if (fitArcs)
+      fitArcs(keep, tol);
+
+    compact(keep);
+  }
+
+  /**
+   * Replaces runs of kept segments by single arcs where all the traced
+   * nodes along them are within tolerance of a circle. Each run is grown
+   * by doubling its length as long as it fits, then by bisection. Arcs
+   * don't pass locked nodes, sweep at most half a circle and have to bulge
+   * out further than tolerance, else a straight segment does as well.
+   */
+  private void fitArcs(boolean[] keep, double tol) {
+
+    arc = new boolean[size];
+    arcCCW = new boolean[size];
+    centerX = new double[size];
+    centerY = new double[size];
+
+    int[] kept = new int[size];
+    int numKept = 0;
+    for (int i = 0; i < size; i++)
+      if (keep[i])
+        kept[numKept++] = i;
+
+    double[] center = new double[3];
+
+    int a = 0;
+
+    while (a + MIN_ARC_SEGMENTS < numKept) {
+
+      int good = -1;
+      int len = MIN_ARC_SEGMENTS;
+
+      while ((a+len < numKept) && fitsArc(kept[a], kept[a+len], tol, center)) {
+        good = len;
+        len *= 2;
       }
 
-      while (end > 0) {
-
-        int segmentEnd = end;
-
-        // This algorithm is known as Douglas-Peucker Line Approximation.
-        // It first lays a single path/segment from start to end, then
-        // looks wether this is within tolerance. If not, it shortens the next
-        // segment to the node with the previously farthest deviation and tries
-        // again.
-        //
-        // As soon as a segment is within tolerance, the segment is used and the
-        // process is repeated with the remaining set of nodes.
-        //
-        // Stepping from the start node to each subsequent node until one of the
-        // nodes in between is out of tolerance would produce some fewer segments,
-        // but also require a lot more processing power and reduce the "prettyness"
-        // of the result.
-        while (true) {
-
-          int i;
-          Point2D point = null;
-          Line2D line = null;
-          boolean sameDeviation = false;
-          double maxDeviation = 0.0;
-          int maxDeviationIndex = 0; // actually, twice the index
-
-          // For fully closed paths, the start-to-end line collapses.
-          if (path.get(0).x == path.get(segmentEnd).x &&
-              path.get(0).y == path.get(segmentEnd).y) {
-            point = new Point2D.Float(processor.toModelX(path.get(0).x),
-                                      processor.toModelY(path.get(0).y));
-          }
-          else {
-            line = new Line2D.Float(processor.toModelX(path.get(0).x),
-                                    processor.toModelY(path.get(0).y),
-                                    processor.toModelX(path.get(segmentEnd).x),
-                                    processor.toModelY(path.get(segmentEnd).y));
-          }
+      if (good < 0) {
+        a++;
+        continue;
+      }
 
-          for (i = 1; i < segmentEnd; i++) {
-            double deviation;
-
-            if (point != null)
-              deviation = point.distance(processor.toModelX(path.get(i).x),
-                                         processor.toModelY(path.get(i).y));
-            else
-              deviation = line.ptLineDist(processor.toModelX(path.get(i).x),
-                                          processor.toModelY(path.get(i).y));
-
-            // Here we deal with the case several pixels have the about
-            // same deviation. In this case, we want the middle pixel.
-            if (Math.abs(deviation - maxDeviation) < straightTol / 100) {
-              if ( ! sameDeviation) {
-                maxDeviationIndex = (i - 1) * 2;
-                sameDeviation = true;
-              }
-              maxDeviationIndex++;
-            }
-            else {
-              sameDeviation = false;
-              if (deviation > maxDeviation) {
-                maxDeviation = deviation;
-                maxDeviationIndex = i * 2;
-              }
-            }
-          }
+      int bad = Math.min(len, numKept-a);
 
-          if (maxDeviation <= straightTol) {
-            // No intermediate node was out of tolerance -> make the segment.
-            optimizedPath.add(path.get(segmentEnd));
+      while (bad - good > 1) {
+        int mid = (good + bad)/2;
+        if (fitsArc(kept[a], kept[a+mid], tol, center))
+          good = mid;
+        else
+          bad = mid;
+      }
 
-            // Remove processed nodes.
-            for ( ; segmentEnd > 0; segmentEnd--, end--) {
-              path.removeFirst();
-            }
+      int begin = kept[a];
+      int end = kept[a+good];
 
-            break;
-          }
-          else {
-            // Try again with a shorter distance.
-            segmentEnd = maxDeviationIndex / 2;
-          }
+      fitsArc(begin, end, tol, center);
+
+      arc[begin] = true;
+      centerX[begin] = center[0];
+      centerY[begin] = center[1];
+      arcCCW[begin] = center[2] < 0.0;
+
+      for (int k = begin+1; k < end; k++)
+        keep[k] = false;
+
+      a += good;
+    }
+  }
+
+  /**
+   * Tests whether the nodes begin..end, and the segments between them, lie
+   * on the circle through the first, middle and last of them.
+   *
+   * @param center receives the center and, as its sign, the direction
+   * of the circle in pel coordinates
+   */
+  private boolean fitsArc(int begin, int end, double tol, double[] center) {
+
+    int mid = (begin + end)/2;
+
+    double ax = x[mid] - x[begin];
+    double ay = y[mid] - y[begin];
+    double bx = x[end] - x[begin];
+    double by = y[end] - y[begin];
+
+    double d = 2.0*(ax*by - ay*bx);
+
+    if (d == 0.0)
+      return false;
+
+    double a2 = ax*ax + ay*ay;
+    double b2 = bx*bx + by*by;
+
+    double ux = (by*a2 - ay*b2)/d;
+    double uy = (ax*b2 - bx*a2)/d;
+
+    double r = Math.sqrt(ux*ux + uy*uy);
+
+    double sweep = 0.0;
+
+    for (int k = begin; k < end; k++) {
+
+      if ((k > begin) && locked[k])
+        return false;
+
+      double px = x[k] - x[begin] - ux;
+      double py = y[k] - y[begin] - uy;
+      double qx = x[k+1] - x[begin] - ux;
+      double qy = y[k+1] - y[begin] - uy;
+
+      if (Math.abs(Math.sqrt(qx*qx + qy*qy) - r) > tol)
+        return false;
+
+      // Straight runs are down to their ends already, so the middle of
+      // the chord has to be close to the arc as well.
+      double cx = qx - px;
+      double cy = qy - py;
+      double half2 = (cx*cx + cy*cy)/4.0;
+
+      if ((half2 > r*r) || (r - Math.sqrt(r*r - half2) > tol))
+        return false;
+
+      double cross = px*qy - py*qx;
+
+      if (cross*d < 0.0)
+        return false;
+
+      sweep += Math.atan2(Math.abs(cross), px*qx + py*qy);
+    }
+
+    if (sweep > Math.PI)
+      return false;
+
+    if (r*(1.0 - Math.cos(sweep/2.0)) <= tol)
+      return false;
+
+    center[0] = x[begin] + ux;
+    center[1] = y[begin] + uy;
+    center[2] = d;
+
+    return true;
+  }
+
+  /**
+   * Removes nodes which sit on a horizontal or vertical straight line
+   * between their neighbors. This loses nothing, it just saves the
+   * Douglas-Peucker pass from looking at them.
+   */
+  private void removeStraightNodes() {
+
+    if (size < 3)
+      return;
+
+    boolean[] keep = new boolean[size];
+    keep[0] = true;
+    keep[size-1] = true;
+
+    int prev = 0;
+
+    for (int i = 1; i < size-1; i++) {
+
+      boolean straight =
+        ((x[prev] == x[i]) && (x[i] == x[i+1]) &&
+         (Math.min(y[prev], y[i+1]) <= y[i]) &&
+         (y[i] <= Math.max(y[prev], y[i+1]))) ||
+        ((y[prev] == y[i]) && (y[i] == y[i+1]) &&
+         (Math.min(x[prev], x[i+1]) <= x[i]) &&
+         (x[i] <= Math.max(x[prev], x[i+1])));
+
+      if (locked[i] || !straight) {
+        keep[i] = true;
+        prev = i;
+      }
+    }
+
+    compact(keep);
+  }
+
+  /**
+   * @return the node strictly between begin and end deviating most from
+   * the line between them, -1 if all are within tolerance
+   */
+  private int findSplit(int begin, int end, double tol) {
+
+    double bx = x[begin];
+    double by = y[begin];
+    double dx = x[end] - bx;
+    double dy = y[end] - by;
+
+    // For fully closed paths, the start-to-end line collapses to a point.
+    double length = Math.sqrt(dx*dx + dy*dy);
+
+    boolean sameDeviation = false;
+    double maxDeviation = 0.0;
+    int maxDeviationIndex = 0; // actually, twice the index
+
+    for (int i = begin+1; i < end; i++) {
+
+      double px = x[i] - bx;
+      double py = y[i] - by;
+
+      double deviation;
+
+      if (length == 0.0)
+        deviation = Math.sqrt(px*px + py*py);
+      else
+        deviation = Math.abs(px*dy - py*dx)/length;
+
+      // Here we deal with the case several pixels have the about
+      // same deviation. In this case, we want the middle pixel.
+      if (Math.abs(deviation - maxDeviation) < tol / 100) {
+        if ( ! sameDeviation) {
+          maxDeviationIndex = (i - 1) * 2;
+          sameDeviation = true;
+        }
+        maxDeviationIndex++;
+      }
+      else {
+        sameDeviation = false;
+        if (deviation > maxDeviation) {
+          maxDeviation = deviation;
+          maxDeviationIndex = i * 2;
+        }
+      }
+    }
+
+    if (maxDeviation <= tol)
+      return -1;
+
+    int split = maxDeviationIndex / 2;
+
+    // Rounding the middle can't step outside the segment.
+    return Math.max(begin+1, Math.min(end-1, split));
+  }
+
+  private void compact(boolean[] keep) {
+
+    int n = 0;
+
+    for (int i = 0; i < size; i++) {
+      if (keep[i]) {
+        x[n] = x[i];
+        y[n] = y[i];
+        locked[n] = locked[i];
+        if (arc != null) {
+          arc[n] = arc[i];
+          arcCCW[n] = arcCCW[i];
+          centerX[n] = centerX[i];
+          centerY[n] = centerY[i];
         }
+        n++;
       }
     }
 
-    path = optimizedPath;
+    size = n;
   }
 
   private ToolpathsProcessor processor = null;
@@ -470,10 +730,20 @@ public class ToolpathPath {
   final int HEAD = 0;
   final int TAIL = 1;
 
-  private LinkedList<ToolpathNode> path = new LinkedList<ToolpathNode>();
+  private int[] x;
+  private int[] y;
+  private boolean[] locked;
+  private int size;
 
   GeometryArray geometry;
 
   private double straightTol;
+  private boolean fitArcs = false;
+
+  // Segment i, from node i to node i+1, is an arc if arc[i] is set.
+  private boolean[] arc;
+  private boolean[] arcCCW;
+  private double[] centerX;
+  private double[] centerY;
 
 }
@@ -26,6 +26,7 @@ import javax.media.j3d.*;
 import javax.vecmath.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 import visolate.*;
@@ -38,7 +39,7 @@ import visolate.processor.GCodeFileWriter.GCodeStroke;
 /**
  * The ToolpathsProcessor generates the content for a  g-code file.
  */
-public class ToolpathsProcessor extends MosaicProcessor {
+public class ToolpathsProcessor extends Processor {
 
 	public static final Color3f ORIGIN_COLOR = new Color3f(1.0f, 0.0f, 1.0f);
 	public static final float ORIGIN_TICK = 0.1f;
@@ -51,23 +52,113 @@ public class ToolpathsProcessor extends MosaicProcessor {
 		this.mode = mode;
 	}
 
-	public void processTile(int r, int c,
+	/**
+	 * Extracts the nodes of one tile right away, so there is never a mosaic
+	 * of the whole board. Pels on the left and top edge of the tile are
+	 * compared against the neighboring tiles as soon as both are done, which
+	 * is why the border rows and columns of each tile are kept.
+	 */
+	public void processTile(BufferedImage tile,
+			int r, int c,
 			int ulx, int uly,
 			int width, int height,
 			double left, double bottom,
 			double right, double top) {
 
-		super.processTile(r, c,
-				ulx, uly,
-				width, height,
-				left, bottom, right, top);
+		DataBuffer buffer = tile.getRaster().getDataBuffer();
+
+		Edges edges = new Edges();
+
+		for (int y = 0; y < height; y++) {
+
+			for (int x = 0; x < width; x++) {
+
+				int color = getPixel(buffer, x, y);
+
+				if ((x > 0) && (getPixel(buffer, x-1, y) != color))
+					edges.add(ulx+x, uly+y, ToolpathNode.S);
+
+				if ((y > 0) && (getPixel(buffer, x, y-1) != color))
+					edges.add(ulx+x, uly+y, ToolpathNode.E);
+			}
+
+			if (thread.isInterrupted())
+				return;
+		}
+
+		int[] leftColumn = new int[height];
+		int[] rightColumn = new int[height];
+		for (int y = 0; y < height; y++) {
+			leftColumn[y] = getPixel(buffer, 0, y);
+			rightColumn[y] = getPixel(buffer, width-1, y);
+		}
+
+		int[] topRow = new int[width];
+		int[] bottomRow = new int[width];
+		for (int x = 0; x < width; x++) {
+			topRow[x] = getPixel(buffer, x, 0);
+			bottomRow[x] = getPixel(buffer, x, height-1);
+		}
+
+		synchronized (nodes) {
+
+			int i = r*numCols + c;
+
+			leftColumns[i] = leftColumn;
+			rightColumns[i] = rightColumn;
+			topRows[i] = topRow;
+			bottomRows[i] = bottomRow;
+
+			if ((c > 0) && (rightColumns[i-1] != null))
+				stitchColumns(rightColumns[i-1], leftColumn, ulx, uly, edges);
+
+			if ((c+1 < numCols) && (leftColumns[i+1] != null))
+				stitchColumns(rightColumn, leftColumns[i+1], ulx+width, uly, edges);
+
+			if ((r > 0) && (bottomRows[i-numCols] != null))
+				stitchRows(bottomRows[i-numCols], topRow, ulx, uly, edges);
+
+			if ((r+1 < numRows) && (topRows[i+numCols] != null))
+				stitchRows(bottomRow, topRows[i+numCols], ulx, uly+height, edges);
+
+			for (int j = 0; j < edges.size; j++)
+				addEdge(edges.x[j], edges.y[j], edges.d[j]);
+		}
+	}
+
+	/**
+	 * Compares the rightmost column of one tile with the leftmost column of
+	 * its right neighbor, which starts at mosaic column x.
+	 */
+	private void stitchColumns(int[] left, int[] right, int x, int y, Edges edges) {
+		for (int i = 0; i < right.length; i++)
+			if (left[i] != right[i])
+				edges.add(x, y+i, ToolpathNode.S);
+	}
+
+	/**
+	 * Compares the bottom row of one tile with the top row of the tile
+	 * below, which starts at mosaic row y.
+	 */
+	private void stitchRows(int[] upper, int[] lower, int x, int y, Edges edges) {
+		for (int i = 0; i < lower.length; i++)
+			if (upper[i] != lower[i])
+				edges.add(x+i, y, ToolpathNode.E);
+	}
+
+	private int getPixel(DataBuffer buffer, int x, int y) {
+		return buffer.getElem(y*canvasWidthPels + x) & 0xffffff;
 	}
 
 	protected void processStarted() {
-		super.processStarted();
 
-		java.awt.image.Raster raster = mosaic.getRaster();
-		buffer = raster.getDataBuffer();
+		System.out.println("mosaic: " + modelWidthPels + " x " + modelHeightPels);
+		System.out.println("tile: " + canvasWidthPels + " x " + canvasHeightPels);
+
+		leftColumns = new int[numRows*numCols][];
+		rightColumns = new int[numRows*numCols][];
+		topRows = new int[numRows*numCols][];
+		bottomRows = new int[numRows*numCols][];
 
 		switch (mode) {
     // The sender will restore these when done.
@@ -75,6 +166,7 @@ public class ToolpathsProcessor extends MosaicProcessor {
 			System.out.println("generating voronoi toolpaths");
 			model.enableBorderGeometry(true);
 			model.enableLineGeometry(false);
+			model.setVoronoiCones(renderer.needsVoronoiCones());
 			model.enableVoronoiGeometry(true);
 			model.enableFlatGeometry(true);
 			model.enableGCodeGeometry(false);
@@ -100,14 +192,12 @@ public class ToolpathsProcessor extends MosaicProcessor {
 
 	protected void processCompleted() {
 
-		super.processCompleted();
-
-		tile = null;
+		leftColumns = null;
+		rightColumns = null;
+		topRows = null;
+		bottomRows = null;
 
-		extractNodes();
-
-		if (thread.isInterrupted())
-			return;
+		System.out.println(nodes.size() + " nodes");
 
 		makePaths();
 
@@ -124,88 +214,56 @@ public class ToolpathsProcessor extends MosaicProcessor {
 		if (thread.isInterrupted())
 			return;
 
-		model.setPaths(getSceneGraph());
-	}
-
-	private void extractNodes() {
-
-		System.out.println("extracting nodes...");
-
-		for (int y = 0; y < mosaicHeight; y++) {
-
-			for (int x = 0; x < mosaicWidth; x++) {
-
-				int color = getColor(x, y);
-				int lColor = getColor(x-1, y);
-				int uColor = getColor(x, y-1);
-
-				ToolpathNode n = null;
-
-				if ((x > 0) && (lColor != color)) {
-
-					if (n == null)
-						n = getNode(x, y);
-
-					ToolpathNode o = getNode(x, y+1);
-
-					n.south = o;
-
-					if (o != null)
-						o.north = n;
-				}
-
-				if ((y > 0) && (uColor != color)) {
-
-					if (n == null)
-						n = getNode(x, y);
-
-					ToolpathNode o = getNode(x+1, y);
-
-					n.east = o;
-
-					if (o != null)
-						o.west = n;
-				}
-			}
-
-			if (thread.isInterrupted())
-				return;
-		}
-
-		System.out.println(nodes.size() + " nodes");
-
-		mosaic = null;
+		if (!visolate.isHeadless())
+			model.setPaths(getSceneGraph());
 	}
 
 	private void makePaths() {
 
 		System.out.println("making paths...");
 
-		Set<ToolpathNode> nodes = this.nodes.keySet();
+		// Tiles come in in any order, so seed the paths in mosaic order to
+		// get the same paths on every run.
+		long[] keys = nodes.getSortedKeys();
 
-		while (!nodes.isEmpty()) {
-		
-			paths.add(new ToolpathPath(this, nodes.iterator().next()));
+		for (int i = 0; i < keys.length; i++) {
+
+			int x = ToolpathNodeMap.keyX(keys[i]);
+			int y = ToolpathNodeMap.keyY(keys[i]);
+
+			while (nodes.getNeighbors(x, y) != 0)
+				paths.add(new ToolpathPath(this, x, y));
 
 			if (thread.isInterrupted()) {
 				return;
 			}
 		}
 
+		nodes = null;
+
 		System.out.println(paths.size() + " paths");
 
 		reportPathStats();
 	}
 
+	/**
+	 * Locks every node where some path starts or ends, in any path. These
+	 * are the crossings, optimization must not move them.
+	 */
 	private void lockCrossingNodes() {
-	
-	   for (ToolpathPath pathToLock : paths) {
-	     // Don't exclude pathToFix == path, as paths can be self-intersecting.
-	     for (ToolpathPath path : paths) {
-	       pathToLock.lockNode(path.getStartNode());
-	       pathToLock.lockNode(path.getEndNode());
-	     }
-	   }
+
+		ToolpathNodeMap ends = new ToolpathNodeMap(2*paths.size());
+
+		for (ToolpathPath path : paths) {
+			ToolpathNode start = path.getStartNode();
+			ToolpathNode end = path.getEndNode();
+			ends.add(start.x, start.y);
+			ends.add(end.x, end.y);
+		}
+
+		// Don't exclude a path's own ends, as paths can be self-intersecting.
+		for (ToolpathPath path : paths)
+			path.lockNodes(ends);
 	}
 	
 	private void reportPathStats() {
@@ -225,63 +283,71 @@ public class ToolpathsProcessor extends MosaicProcessor {
 
 		System.out.println("optimizing paths...");
 
-		for (ToolpathPath path : paths) {
+		// Paths are independent now, so optimize them on all threads,
+		// the largest first so no thread is left with a long one at the end.
+		List<ToolpathPath> bySize = new ArrayList<ToolpathPath>(paths);
+		Collections.sort(bySize, new Comparator<ToolpathPath>() {
+			public int compare(ToolpathPath a, ToolpathPath b) {
+				return b.numPathNodes() - a.numPathNodes();
+			}
+		});
+
+		ExecutorService executor =
+			newWorkerPool(visolate.getNumThreads(), "visolate path optimizer");
+
+		List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+
+		for (final ToolpathPath path : bySize) {
 		
       // TODO: This "straightTolerance" is actually an very important value,
       //       it tells the optimizer how close the optimized path should
       //       match the original, exact path. At such importance,
       //       it should definitely be user-configurable by a GUI text field.
 		  path.setStraightTolerance(2.0/((double) dpi));
-			path.optimize();
+			path.setFitArcs(visolate.getFitArcs());
 
-			if (thread.isInterrupted())
-				return;
+			tasks.add(executor.submit(new Callable<Object>() {
+				public Object call() {
+					if (!thread.isInterrupted())
+						path.optimize();
+					return null;
+				}
+			}));
 		}
 
-		reportPathStats();
-	}
-
-	private int getColor(int x, int y) {
+		executor.shutdown();
 
-		if (x < 0)
-			return 0;
-
-		if (y < 0)
-			return 0;
-
-		if (x >= mosaicWidth)
-			return 0;
+		try {
+			for (Future<Object> task : tasks)
+				task.get();
+		} catch (InterruptedException e) {
+			thread.interrupt(); //re-set interrupt status
+		} catch (ExecutionException e) {
+			shutdownNow(executor);
+			throw new RuntimeException(e.getCause());
+		}
 
-		if (y >= mosaicHeight)
-			return 0;
+		if (thread.isInterrupted()) {
+			shutdownNow(executor);
+			return;
+		}
 
-		return buffer.getElem(y*mosaicWidth + x) & 0xffffff;
+		reportPathStats();
 	}
 
-	private ToolpathNode getNode(int x, int y) {
-
-		if (x < 0)
-			return null;
-
-		if (y < 0)
-			return null;
-
-		if (x >= mosaicWidth)
-			return null;
-
-		if (y >= mosaicHeight)
-			return null;
-
-		ToolpathNode key = new ToolpathNode(x, y);
-
-		ToolpathNode node = (ToolpathNode) nodes.get(key);
+	/**
+	 * Adds the node at (x, y) and links it to its neighbor in direction d,
+	 * as far as the neighbor is inside the mosaic.
+	 */
+	private void addEdge(int x, int y, int d) {
 
-		if (node == null) {
-			node = key;
-			nodes.put(key, node);
-		}
+		int nx = ToolpathNodeMap.neighborX(x, d);
+		int ny = ToolpathNodeMap.neighborY(y, d);
 
-		return node;
+		if ((nx >= modelWidthPels) || (ny >= modelHeightPels))
+			nodes.add(x, y);
+		else
+			nodes.connect(x, y, d);
 	}
 	
 	public BranchGroup getSceneGraph() {
@@ -313,42 +379,93 @@ public class ToolpathsProcessor extends MosaicProcessor {
 		return (float) (mosaicBounds.y + modelHeight-y/((float) dpi));
 	}
 
-	private ToolpathPath getClosestPath(Collection<ToolpathPath> paths, Point3d p) {
+	/**
+	 * Writes the path entered at the given end, and flushes it out if asked
+	 * to.
+	 */
+	private void writePath(GCodeFileWriter w, List<ToolpathPath> paths, int entry,
+	                       boolean flush)
+		throws IOException {
+		paths.get(entry/2).writeGCode(w, (entry & 1) != 0);
+		if (flush)
+			w.flush();
+	}
+
+	public void writeGCode(GCodeFileWriter w) throws IOException {
+		writeGCode(w, false);
+	}
 
-		double minDist = Double.POSITIVE_INFINITY;
-		ToolpathPath closest = null;
+	/**
+	 * @param flushEachPath whether to flush w after each path, so a machine
+	 * fed from a stream can start early. Files are better written in big
+	 * chunks.
+	 */
+	public void writeGCode(GCodeFileWriter w, boolean flushEachPath)
+		throws IOException {
 
-		for (ToolpathPath path : paths) {
+		model.clearGCode();
 
-			double dist = new Point2d(p.x, p.y).distance(path.getStartPoint());
+		// Strokes are only needed for the preview.
+		w.setCollectStrokes(!visolate.isHeadless());
 
-			if (dist < minDist) {
-				minDist = dist;
-				closest = path;
-			}
+    w.preAmble();
+
+		List<ToolpathPath> paths = new ArrayList<ToolpathPath>(this.paths);
+
+		// Paths can be cut from either end, whichever is closer.
+		double[] x = new double[2*paths.size()];
+		double[] y = new double[2*paths.size()];
+
+		for (int i = 0; i < paths.size(); i++) {
+			Point2d start = paths.get(i).getStartPoint();
+			Point2d end = paths.get(i).getEndPoint();
+			x[2*i] = start.x;
+			y[2*i] = start.y;
+			x[2*i+1] = end.x;
+			y[2*i+1] = end.y;
 		}
 
-		return closest;
-	}
+		Point3d origin = w.getCurrentPosition();
 
-	public void writeGCode(GCodeFileWriter w) throws IOException {
+		int[] tour = new int[paths.size()];
 
-		model.clearGCode();
+		PathEndIndex index = new PathEndIndex(x, y);
 
-    w.preAmble();
+		double px = origin.x;
+		double py = origin.y;
 
-		Collection<ToolpathPath> paths = new LinkedList<ToolpathPath>();
-		paths.addAll(this.paths);
+		long tourTime = visolate.getTourOptimizationTime();
+		boolean optimizeTour = (tourTime > 0) && (tour.length > 1);
 
-    while (!paths.isEmpty()) {
+		for (int i = 0; i < tour.length; i++) {
+			tour[i] = index.takeClosest(px, py);
+			px = x[tour[i]^1];
+			py = y[tour[i]^1];
 
-      ToolpathPath closestPath = getClosestPath(paths, w.getCurrentPosition());
+			// The greedy order is final, so a machine fed from w can start
+			// on this path while the next ones are looked up.
+			if (!optimizeTour)
+				writePath(w, paths, tour[i], flushEachPath);
+		}
+
+		if (optimizeTour) {
+
+			TourOptimizer optimizer = new TourOptimizer(x, y, origin.x, origin.y);
+
+			double before = optimizer.rapidDistance(tour);
+			tour = optimizer.optimize(tour, tourTime);
+			double after = optimizer.rapidDistance(tour);
 
-      closestPath.writeGCode(w);
-      paths.remove(closestPath);
-    }
+			System.out.println("rapid distance: " + before + " -> " + after);
+
+			for (int i = 0; i < tour.length; i++)
+				writePath(w, paths, tour[i], flushEachPath);
+		}
 		
 		w.postAmble();
+
+		if (visolate.isHeadless())
+			return;
 		
 		List<GCodeStroke>gCodeStrokes = w.getGCodeStrokes();
 
@@ -411,10 +528,38 @@ public class ToolpathsProcessor extends MosaicProcessor {
 		model.setGCode(gCodeBG);
 	}
 
-	public Map<ToolpathNode, ToolpathNode> nodes = new LinkedHashMap<ToolpathNode, ToolpathNode>();
+	ToolpathNodeMap nodes = new ToolpathNodeMap();
 	private List<ToolpathPath> paths = new LinkedList<ToolpathPath>();
 
-	private DataBuffer buffer;
+	private int[][] leftColumns;
+	private int[][] rightColumns;
+	private int[][] topRows;
+	private int[][] bottomRows;
+
+	/**
+	 * The edges found in one tile, added to the nodes in one go.
+	 */
+	private static class Edges {
+
+		void add(int x, int y, int d) {
+
+			if (size == this.x.length) {
+				this.x = Arrays.copyOf(this.x, 2*size);
+				this.y = Arrays.copyOf(this.y, 2*size);
+				this.d = Arrays.copyOf(this.d, 2*size);
+			}
+
+			this.x[size] = x;
+			this.y[size] = y;
+			this.d[size] = (byte) d;
+			size++;
+		}
+
+		int[] x = new int[256];
+		int[] y = new int[256];
+		byte[] d = new byte[256];
+		int size = 0;
+	}
 
 	private BranchGroup sceneBG = null;
 	
@@ -33,7 +33,8 @@ public class TopologyProcessor extends Processor {
     super(visolate);
   }
 
-  public void processTile(int r, int c,
+  public void processTile(BufferedImage tile,
+                          int r, int c,
                           int ulx, int uly,
                           int width, int height,
                           double left, double bottom,
@@ -49,23 +50,22 @@ public class TopologyProcessor extends Processor {
     if (width < 2)
       return;
 
-    try {
+    int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
 
-//      display.getStill(tile);
-      tile = display.getStill(); //work around j3d bug
-      buffer = tile.getRaster().getDataBuffer(); //work around j3d bug
+    try {
 
       for (int y = 0; y < height; y++) {
+
         for (int x = 0; x < width; x++) {
 
-          int color = getPixel(x, y) & 0xffffff;
+          int color = pixels[y*canvasWidthPels + x] & 0xffffff;
 
-          if (!ignoreColors.contains(new Integer(color)))
+          if (!ignoreColors.contains(color))
             mergeNets(x, y, left, top, color);
-
-          if (thread.isInterrupted())
-            return;
         }
+
+        if (thread.isInterrupted())
+          return;
       }
 
     } catch (InterruptedException e) {
@@ -73,9 +73,13 @@ public class TopologyProcessor extends Processor {
     }
   }
 
-  private void mergeNets(final int x, final int y, final double left, final double top, final int color)
+  private synchronized void mergeNets(final int x, final int y, final double left, final double top, final int color)
     throws InterruptedException {
 
+    // another tile may have been here first
+    if (ignoreColors.contains(color))
+      return;
+
     double px = left+x/((double) dpi);
     double py = top-y/((double) dpi);
 
@@ -83,7 +87,7 @@ public class TopologyProcessor extends Processor {
 //                       ") -> (" + px + ", " + py + ")");
 
 //    System.out.println("ignoring " + Model.colorToString(color));
-    ignoreColors.add(new Integer(color));
+    ignoreColors.add(color);
 
     Set<Net> nets = new LinkedHashSet<Net>();
 
@@ -99,40 +103,35 @@ public class TopologyProcessor extends Processor {
       return;
     }
 
-    mergeNets(nets);
+    union.union(nets);
   }
 
+  /**
+   * Merges nets right away, along with the super nets they are in.
+   */
   public static void mergeNets(Collection<Net> nets) {
 
-    Set<Net> superNet = null;
+    Set<Net> all = new LinkedHashSet<Net>();
 
     for (Net net : nets) {
-      if (superNet == null) {
-        superNet = net.getSuperNet();
-      }
-    }
 
-    if (superNet == null) {
-      superNet = new LinkedHashSet<Net>();
-    }
+      Set<Net> superNet = net.getSuperNet();
 
-    for (Net net : nets) {
-    	net.setSuperNet(superNet);
+      if (superNet != null)
+        all.addAll(superNet);
+      else
+        all.add(net);
     }
-  }
 
-  private int getPixel(int x, int y) {
-    return buffer.getElem(y*canvasWidthPels + x);
+    NetUnion union = new NetUnion(all);
+    union.union(nets);
+    union.apply();
   }
 
   protected void processStarted() {
 
     visolate.clearSelection();
 
-    tile = display.makeBufferedImage(canvasWidthPels, canvasHeightPels);
-    Raster raster = tile.getRaster();
-    buffer = raster.getDataBuffer();
-
     // The sender will restore these when done.
     model.setToolDiameter(0.0);
     model.enableBorderGeometry(true);
@@ -145,13 +144,15 @@ public class TopologyProcessor extends Processor {
     model.clearPaths();
     model.clearGCode();
 
-    Set<Integer> netColors = model.getNetColors();
+    union = new NetUnion(model.getNets());
 
-    ignoreColors = new LinkedHashSet<Integer>();
+    int[] netColors = model.getNetColors();
 
-    for (Iterator<Integer> it = netColors.iterator(); it.hasNext(); ) {
+    ignoreColors = new ColorSet();
 
-      int c = it.next().intValue();
+    for (int n = 0; n < netColors.length; n++) {
+
+      int c = netColors[n];
 
 //      System.out.println("base color: " + Model.colorToString(c));
 
@@ -172,21 +173,28 @@ public class TopologyProcessor extends Processor {
         int j = ((r & 0xff) << 16) | ((g & 0xff) << 8) | (b & 0xff);
 
 //        System.out.println("ignoring " + Model.colorToString(j));
-        ignoreColors.add(new Integer(j));
+        ignoreColors.add(j);
       }
     }
 
 //    System.out.println("ignoring " + Model.colorToString(0));
-    ignoreColors.add(new Integer(0));
+    ignoreColors.add(0);
+  }
+
+  protected void processInterrupted() {
+    applyUnion();
   }
 
   protected void processCompleted() {
-    tile = null;
+    applyUnion();
   }
 
-  protected BufferedImage tile = null;
+  private void applyUnion() {
+    System.out.println(union.apply() + " super nets");
+    union = null;
+  }
 
-  private DataBuffer buffer;
+  private ColorSet ignoreColors;
 
-  private Set<Integer> ignoreColors;
+  private NetUnion union;
 }
@@ -0,0 +1,316 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+package visolate.processor;
+
+/**
+ * Shortens the rapid moves between paths by local search on the order in
+ * which they are cut. A tour is an array of path ends as numbered by
+ * PathEndIndex: each entry is the end a path is entered from, the path is
+ * left from the other end, entry^1.
+ *
+ * Two moves are tried, both restricted to the nearest few ends of the
+ * point the cutter comes from:
+ * <ul>
+ * <li>2-opt: reverse a stretch of the tour, which also cuts each path in
+ *     it in the other direction.
+ * <li>Or-opt: move a run of up to three paths elsewhere, either way round.
+ * </ul>
+ * The tour is open, it starts at a given point and ends wherever the last
+ * path ends.
+ */
+public class TourOptimizer {
+
+  public static final int NUM_NEIGHBORS = 8;
+  public static final int MAX_SEGMENT = 3;
+
+  private static final double EPSILON = 1e-9;
+
+  public TourOptimizer(double[] x, double[] y, double startX, double startY) {
+
+    this.x = x;
+    this.y = y;
+    this.startX = startX;
+    this.startY = startY;
+
+    PathEndIndex index = new PathEndIndex(x, y);
+
+    neighbors = new int[x.length][];
+
+    for (int end = 0; end < x.length; end++) {
+
+      int[] near = index.findNearest(x[end], y[end], NUM_NEIGHBORS+1);
+
+      // drop the end itself
+      int[] without = new int[Math.max(0, near.length-1)];
+      int n = 0;
+      for (int i = 0; (i < near.length) && (n < without.length); i++)
+        if (near[i] != end)
+          without[n++] = near[i];
+
+      neighbors[end] = without;
+    }
+
+    startNeighbors = index.findNearest(startX, startY, NUM_NEIGHBORS);
+  }
+
+  /**
+   * @return the total length of the rapid moves of a tour
+   */
+  public double rapidDistance(int[] tour) {
+
+    double px = startX;
+    double py = startY;
+
+    double distance = 0.0;
+
+    for (int i = 0; i < tour.length; i++) {
+      distance += distance(px, py, x[tour[i]], y[tour[i]]);
+      px = x[tour[i]^1];
+      py = y[tour[i]^1];
+    }
+
+    return distance;
+  }
+
+  /**
+   * Improves a tour until no move helps any more or the time is up.
+   *
+   * @return the improved tour, the given one is left alone
+   */
+  public int[] optimize(int[] initial, long millis) {
+
+    long deadline = System.currentTimeMillis() + millis;
+
+    tour = initial.clone();
+
+    pos = new int[tour.length];
+    for (int i = 0; i < tour.length; i++)
+      pos[tour[i]/2] = i;
+
+    boolean improved = true;
+
+    while (improved) {
+
+      improved = false;
+
+      for (int i = 0; i < tour.length; i++) {
+
+        if (((i & 0x3f) == 0) && (System.currentTimeMillis() > deadline))
+          return tour;
+
+        if (twoOpt(i) || orOpt(i))
+          improved = true;
+      }
+    }
+
+    return tour;
+  }
+
+  /**
+   * Tries to reverse tour[i..j] for some j, such that the cutter goes
+   * from the path before i straight to a path end close to it.
+   */
+  private boolean twoOpt(int i) {
+
+    int n = tour.length;
+
+    double ax = exitX(i-1);
+    double ay = exitY(i-1);
+
+    int first = tour[i];
+
+    double oldIn = distance(ax, ay, x[first], y[first]);
+
+    int[] near = (i == 0) ? startNeighbors : neighbors[tour[i-1]^1];
+
+    for (int k = 0; k < near.length; k++) {
+
+      int c = near[k];
+
+      double newIn = distance(ax, ay, x[c], y[c]);
+
+      if (newIn >= oldIn)
+        break;
+
+      int j = pos[c/2];
+
+      // c has to become the entry, so it has to be the exit now
+      if ((j < i) || (c != (tour[j]^1)))
+        continue;
+
+      double delta = newIn - oldIn;
+
+      if (j+1 < n) {
+        int next = tour[j+1];
+        delta += distance(x[first], y[first], x[next], y[next]) -
+          distance(x[c], y[c], x[next], y[next]);
+      }
+
+      if (delta < -EPSILON) {
+        reverse(i, j);
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Tries to move tour[i..i+len-1] behind some other path, in either
+   * direction.
+   */
+  private boolean orOpt(int i) {
+
+    int n = tour.length;
+
+    double ax = exitX(i-1);
+    double ay = exitY(i-1);
+
+    for (int len = 1; (len <= MAX_SEGMENT) && (i+len <= n); len++) {
+
+      int first = tour[i];
+      int last = tour[i+len-1];
+
+      double removeGain = distance(ax, ay, x[first], y[first]);
+
+      if (i+len < n) {
+        int next = tour[i+len];
+        removeGain += distance(x[last^1], y[last^1], x[next], y[next]) -
+          distance(ax, ay, x[next], y[next]);
+      }
+
+      if (removeGain <= EPSILON)
+        continue;
+
+      for (int way = 0; way < 2; way++) {
+
+        boolean reversed = (way == 1);
+
+        int entry = reversed ? last^1 : first;
+        int exit = reversed ? first : last^1;
+
+        int[] near = neighbors[entry];
+
+        for (int k = 0; k < near.length; k++) {
+
+          int c = near[k];
+
+          double in = distance(x[c], y[c], x[entry], y[entry]);
+
+          if (in >= removeGain)
+            break;
+
+          // c has to be the exit of the path we insert behind
+          int m = pos[c/2];
+
+          if (c != (tour[m]^1))
+            continue;
+
+          if ((m >= i-1) && (m < i+len))
+            continue;
+
+          double addCost = in;
+
+          if (m+1 < n) {
+            int next = tour[m+1];
+            addCost += distance(x[exit], y[exit], x[next], y[next]) -
+              distance(x[c], y[c], x[next], y[next]);
+          }
+
+          if (addCost - removeGain < -EPSILON) {
+            move(i, len, m, reversed);
+            return true;
+          }
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private double exitX(int i) {
+    return (i < 0) ? startX : x[tour[i]^1];
+  }
+
+  private double exitY(int i) {
+    return (i < 0) ? startY : y[tour[i]^1];
+  }
+
+  private void reverse(int i, int j) {
+
+    for ( ; i < j; i++, j--) {
+      int t = tour[i];
+      tour[i] = tour[j]^1;
+      tour[j] = t^1;
+      pos[tour[i]/2] = i;
+      pos[tour[j]/2] = j;
+    }
+
+    if (i == j)
+      tour[i] ^= 1;
+  }
+
+  /**
+   * Moves tour[i..i+len-1] right behind tour[m].
+   */
+  private void move(int i, int len, int m, boolean reversed) {
+
+    int[] segment = new int[len];
+    for (int k = 0; k < len; k++)
+      segment[k] = reversed ? tour[i+len-1-k]^1 : tour[i+k];
+
+    int from;
+    int to;
+
+    if (m > i) {
+      System.arraycopy(tour, i+len, tour, i, m-i-len+1);
+      System.arraycopy(segment, 0, tour, m-len+1, len);
+      from = i;
+      to = m;
+    } else {
+      System.arraycopy(tour, m+1, tour, m+1+len, i-m-1);
+      System.arraycopy(segment, 0, tour, m+1, len);
+      from = m+1;
+      to = i+len-1;
+    }
+
+    for (int k = from; k <= to; k++)
+      pos[tour[k]/2] = k;
+  }
+
+  private static double distance(double x0, double y0, double x1, double y1) {
+    double dx = x1 - x0;
+    double dy = y1 - y0;
+    return Math.sqrt(dx*dx + dy*dy);
+  }
+
+  private final double[] x;
+  private final double[] y;
+
+  private final double startX;
+  private final double startY;
+
+  private final int[][] neighbors;
+  private final int[] startNeighbors;
+
+  private int[] tour;
+  private int[] pos;
+}
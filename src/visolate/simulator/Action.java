@@ -26,21 +26,44 @@ import javax.vecmath.*;
 
 public abstract class Action extends SimObject {
 
-  protected static void addTranslatedAperture(Collection<GeometryArray> geometries,
-                                              Aperture aperture,
-                                              Vertex v) {
+  /**
+   * The geometries of an action may be shared with other actions of the
+   * same shape, placed where the shape was first made. Moved by
+   * getTranslation() they are in place. getGeometries() has them in place
+   * already, but makes a copy to do so, see makeTranslatedGeometries().
+   */
+  public Collection<GeometryArray> getSharedGeometries() {
+    return getGeometries();
+  }
+
+  /**
+   * @return how far to move getSharedGeometries(), null if not at all
+   */
+  public Vector2f getTranslation() {
+    return null;
+  }
+
+  /**
+   * Makes geometries from a copy of getSharedGeometries(), moved by
+   * getTranslation(). For actions which override both.
+   */
+  protected void makeTranslatedGeometries() {
+
+    geometries = new LinkedList<GeometryArray>();
 
-    Collection<GeometryArray> apGeoms = aperture.getGeometries();
+    Collection<GeometryArray> shared = getSharedGeometries();
 
-    if (apGeoms == null) {
+    if (shared == null) {
       return;
     }
 
-    Vector2f p = new Vector2f(v.getInchCoordinates());
+    Vector2f t = getTranslation();
 
-    for (Iterator<GeometryArray> it = apGeoms.iterator(); it.hasNext(); ) {
-      GeometryArray ga = dupGeometry(it.next());
-      translateGeometry(ga, p);
+    for (GeometryArray geometry : shared) {
+      GeometryArray ga = dupGeometry(geometry);
+      if (t != null) {
+        translateGeometry(ga, t);
+      }
       geometries.add(ga);
     }
   }
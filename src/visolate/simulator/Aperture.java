@@ -20,12 +20,40 @@
 
 package visolate.simulator;
 
+import java.util.*;
+
+import javax.media.j3d.GeometryArray;
+
+/**
+ * Apertures keep the geometries made for the last few offsets, so going
+ * back and forth between tool diameters doesn't build them again. All
+ * flashes of an aperture share these, see Flash.getSharedGeometries().
+ */
 public abstract class Aperture extends SimObject {
 
+  public static final int MAX_CACHED_OFFSETS = 4;
+
   public Aperture(int number) {
     this.number = number;
   }
 
+  public Collection<GeometryArray> getGeometries() {
+
+    if (geometries == null) {
+
+      Double key = Double.valueOf(signedOffset);
+
+      geometries = geometryCache.get(key);
+
+      if (geometries == null) {
+        makeGeometries();
+        geometryCache.put(key, geometries);
+      }
+    }
+
+    return geometries;
+  }
+
   public int getNumber() {
     return number;
   }
@@ -33,4 +61,15 @@ public abstract class Aperture extends SimObject {
   public abstract double getWidth(double direction);
 
   protected int number;
+
+  private Map<Double, Collection<GeometryArray>> geometryCache =
+    new LinkedHashMap<Double, Collection<GeometryArray>>(MAX_CACHED_OFFSETS+1,
+                                                         0.75f, true) {
+
+    private static final long serialVersionUID = 1L;
+
+    protected boolean removeEldestEntry(Map.Entry<Double, Collection<GeometryArray>> eldest) {
+      return size() > MAX_CACHED_OFFSETS;
+    }
+  };
 }
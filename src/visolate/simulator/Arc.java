@@ -20,49 +20,263 @@
 
 package visolate.simulator;
 
+import java.util.*;
+
+import javax.media.j3d.GeometryArray;
+import javax.vecmath.*;
+
+import visolate.misc.*;
+
+/**
+ * A circular arc stroke. Its body is made of short straight ovals along
+ * the arc, like a Segment each, so every piece stays convex. How many of
+ * them depends on the radius: the chords never stray further from the arc
+ * than the tolerance, see getTolerance().
+ */
 public class Arc extends Stroke {
 
-  public Arc(Aperture aperture, Vertex start, Vertex end, Vertex center) {
+  public static final int MIN_DPI = 1000;
+
+  public static final double MIN_STEP = Simulator.ARC_RESOLUTION;
+  public static final double MAX_STEP = Math.PI/8.0;
+
+  public static final double DEF_TOLERANCE = getTolerance(MIN_DPI);
+
+  /**
+   * @param sweep the angle from start to end, positive counterclockwise
+   * @param tolerance how far the chords may stray from the arc, in inches
+   */
+  public Arc(Aperture aperture, Vertex start, Vertex end, Vertex center,
+             double sweep, double tolerance) {
     super(aperture, start, end);
 
     this.center = center;
+    this.sweep = sweep;
+    this.tolerance = tolerance;
+
+    double startT = Math.atan2(start.y - center.y, start.x - center.x);
+    double endT = Math.atan2(end.y - center.y, end.x - center.x);
+
+    double turn = (sweep < 0.0) ? -Math.PI/2 : Math.PI/2;
+
+    startForwardDirection = Util.canonicalizeAngle(startT + turn);
+    startReverseDirection = Util.canonicalizeAngle(startT + turn + Math.PI);
+    endForwardDirection = Util.canonicalizeAngle(endT + turn);
+    endReverseDirection = Util.canonicalizeAngle(endT + turn + Math.PI);
 
 //    System.out.println(toString());
   }
 
+  /**
+   * @return the tolerance for rendering at dpi, half a pixel, but never
+   * coarser than for MIN_DPI
+   */
+  public static double getTolerance(int dpi) {
+    return 0.5/Math.max(dpi, MIN_DPI);
+  }
+
+  /**
+   * @return the angle between the ends of the chords along an arc of the
+   * given radius, in inches
+   */
+  public static double getStep(double radius, double tolerance) {
+
+    if (tolerance >= radius)
+      return MAX_STEP;
+
+    return Math.min(Math.max(2.0*Math.acos(1.0 - tolerance/radius), MIN_STEP),
+                    MAX_STEP);
+  }
+
+  public double getTolerance() {
+    return tolerance;
+  }
+
+  /**
+   * Changing the tolerance drops the points and geometry made for the old
+   * one.
+   */
+  public void setTolerance(double tolerance) {
+
+    if (tolerance == this.tolerance)
+      return;
+
+    this.tolerance = tolerance;
+
+    pathPoints = null;
+    geometries = null;
+  }
+
+  public Vertex getCenter() {
+    return center;
+  }
+
+  public double getSweep() {
+    return sweep;
+  }
+
+  public double getRadius() {
+    return center.getInchCoordinates().distance(start.getInchCoordinates());
+  }
+
   public double getLength() {
-    throw new UnsupportedOperationException("TBD Arc.getLength() unimplemented");
+    return getRadius()*Math.abs(sweep);
   }
 
   public double getStartForwardDirection() {
-    throw new UnsupportedOperationException("TBD Arc direction unimplemented");
+    return startForwardDirection;
   }
 
   public double getStartReverseDirection() {
-    throw new UnsupportedOperationException("TBD Arc direction unimplemented");
+    return startReverseDirection;
   }
 
   public double getEndForwardDirection() {
-    throw new UnsupportedOperationException("TBD Arc direction unimplemented");
+    return endForwardDirection;
   }
 
   public double getEndReverseDirection() {
-    throw new UnsupportedOperationException("TBD Arc direction unimplemented");
+    return endReverseDirection;
   }
 
+  /**
+   * @return the points of the tessellated arc, from start to end
+   */
+  public Point2f[] getPathPoints() {
+
+    if (pathPoints != null)
+      return pathPoints;
+
+    Point2f s = start.getInchCoordinates();
+    Point2f c = center.getInchCoordinates();
+
+    double radius = getRadius();
+
+    int n = Math.max(1,
+                     (int) Math.ceil(Math.abs(sweep)/getStep(radius, tolerance)));
+
+    double startT = Math.atan2(s.y - c.y, s.x - c.x);
+
+    pathPoints = new Point2f[n+1];
+
+    pathPoints[0] = s;
+
+    for (int i = 1; i < n; i++) {
+      double t = startT + sweep*i/n;
+      pathPoints[i] = new Point2f((float) (c.x + radius*Math.cos(t)),
+                                  (float) (c.y + radius*Math.sin(t)));
+    }
+
+    pathPoints[n] = end.getInchCoordinates();
+
+    return pathPoints;
+  }
+
+  /**
+   * The box around the arc is spanned by its ends and the points where it
+   * crosses an axis through the center.
+   */
   protected void makeBounds() {
-    throw new UnsupportedOperationException("TBD Arc bounds unimplimented");
+
+    bounds = new Rect();
+
+    Rect apBounds = aperture.getBounds();
+
+    Point2f c = center.getInchCoordinates();
+    Point2f s = start.getInchCoordinates();
+    Point2f e = end.getInchCoordinates();
+
+    double radius = getRadius();
+
+    addApertureBounds(apBounds, s.x, s.y);
+    addApertureBounds(apBounds, e.x, e.y);
+
+    double startT = Math.atan2(s.y - c.y, s.x - c.x);
+
+    for (int quadrant = 0; quadrant < 4; quadrant++) {
+
+      double t = quadrant*Math.PI/2;
+
+      double swept = (sweep < 0.0) ? startT - t : t - startT;
+
+      if (Util.canonicalizeAngle(swept) <= Math.abs(sweep))
+        addApertureBounds(apBounds,
+                          c.x + radius*Math.cos(t),
+                          c.y + radius*Math.sin(t));
+    }
+  }
+
+  private void addApertureBounds(Rect apBounds, double x, double y) {
+    bounds.add(new Rect(apBounds.x + x,
+                        apBounds.y + y,
+                        apBounds.width,
+                        apBounds.height));
   }
 
   protected void makeGeometries() {
-    throw new UnsupportedOperationException("TBD Arc geometry not implemented");
+
+    Point2f[] points = getPathPoints();
+
+    float[][] pieces = new float[points.length-1][];
+
+    int numCoords = 0;
+
+    for (int i = 0; i < pieces.length; i++) {
+
+      Point2f s = points[i];
+      Point2f e = points[i+1];
+
+      double direction =
+        Util.canonicalizeAngle(Math.atan2(e.y - s.y, e.x - s.x));
+
+      pieces[i] = Segment.makeBodyCoords(aperture.getWidth(direction),
+                                         s.distance(e), direction, s, e);
+
+      if (pieces[i] != null)
+        numCoords += pieces[i].length;
+    }
+
+    if (numCoords == 0)
+      return;
+
+    float[] coords = new float[numCoords];
+    List<Integer> counts = new ArrayList<Integer>();
+
+    int at = 0;
+    for (float[] piece : pieces) {
+
+      if (piece == null)
+        continue;
+
+      System.arraycopy(piece, 0, coords, at, piece.length);
+      at += piece.length;
+
+      counts.add(piece.length/3);
+    }
+
+    int[] stripVertexCounts = new int[counts.size()];
+    for (int i = 0; i < stripVertexCounts.length; i++)
+      stripVertexCounts[i] = counts.get(i);
+
+    geometries = new LinkedList<GeometryArray>();
+    geometries.add(makeTFA(coords, stripVertexCounts));
   }
 
   public String toString() {
     return
       "arc from " + start + " to " + end +
-      "; center " + center + "; " + aperture;
+      "; center " + center + "; sweep " + Math.toDegrees(sweep) + " deg; " +
+      aperture;
   }
 
   private Vertex center;
+  private double sweep;
+  private double tolerance;
+
+  private double startForwardDirection;
+  private double startReverseDirection;
+  private double endForwardDirection;
+  private double endReverseDirection;
+
+  private Point2f[] pathPoints = null;
 }
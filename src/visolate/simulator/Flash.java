@@ -43,6 +43,10 @@ public class Flash extends Action {
     return location;
   }
 
+  public Aperture getAperture() {
+    return aperture;
+  }
+
   protected void makeBounds() {
 
     Rect b = aperture.getBounds();
@@ -52,8 +56,18 @@ public class Flash extends Action {
   }
 
   protected void makeGeometries() {
-    geometries = new LinkedList<GeometryArray>();
-    addTranslatedAperture(geometries, aperture, location);
+    makeTranslatedGeometries();
+  }
+
+  /**
+   * @return the geometries of the aperture, which all its flashes share
+   */
+  public Collection<GeometryArray> getSharedGeometries() {
+    return aperture.getGeometries();
+  }
+
+  public Vector2f getTranslation() {
+    return new Vector2f(location.getInchCoordinates());
   }
 
   public String toString() {
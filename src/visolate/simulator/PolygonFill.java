@@ -20,16 +20,191 @@
 
 package visolate.simulator;
 
-public class PolygonFill extends Action {
+import java.util.*;
+
+import javax.media.j3d.GeometryArray;
+import javax.vecmath.*;
+
+import visolate.misc.*;
+
+/**
+ * A region filled in polygon mode (G36/G37). It takes part in nets like a
+ * pad flashed at its first vertex, and touches everything ending at any of
+ * its vertices.
+ *
+ * The geometry is a fan per triangle of the outline, plus, when the fill
+ * is offset, an oval of the offset around every edge.
+ */
+public class PolygonFill extends Flash {
+
+  public PolygonFill(List<Vertex> contour) {
+    super(null, contour.get(0));
+
+    vertices = new ArrayList<Vertex>(contour.size());
+
+    for (Vertex vertex : contour)
+      if (vertices.isEmpty() ||
+          !vertex.equals(vertices.get(vertices.size()-1)))
+        vertices.add(vertex);
+
+    // the contour is closed anyway
+    while ((vertices.size() > 1) &&
+           vertices.get(vertices.size()-1).equals(vertices.get(0)))
+      vertices.remove(vertices.size()-1);
+
+    for (Vertex vertex : vertices)
+      vertex.addIncidentAction(this);
+
+//    System.out.println(toString());
+  }
+
+  public List<Vertex> getVertices() {
+    return vertices;
+  }
 
   protected void makeBounds() {
-    throw new UnsupportedOperationException("TBD Polygon bounds unimplimented");
+
+    bounds = new Rect();
+
+    for (Vertex vertex : vertices) {
+      Point2f p = vertex.getInchCoordinates();
+      bounds.add(p.x, p.y);
+    }
+
+    double grow = Math.max(signedOffset, 0.0);
+
+    bounds = new Rect(bounds.x - grow, bounds.y - grow,
+                      bounds.width + 2*grow, bounds.height + 2*grow);
   }
 
   protected void makeGeometries() {
-    throw
-      new UnsupportedOperationException("TBD Polygon geometry not implemented");
+
+    int n = vertices.size();
+
+    double[] x = new double[n];
+    double[] y = new double[n];
+
+    for (int i = 0; i < n; i++) {
+      Point2f p = vertices.get(i).getInchCoordinates();
+      x[i] = p.x;
+      y[i] = p.y;
+    }
+
+    int[] triangles = PolygonTriangulator.triangulate(x, y);
+
+    List<float[]> strips = new ArrayList<float[]>();
+
+    for (int t = 0; t < triangles.length; t += 3)
+      strips.add(makeTriangleFan(x, y,
+                                 triangles[t],
+                                 triangles[t+1],
+                                 triangles[t+2]));
+
+    // growing the fill by the offset is the same as adding an oval as
+    // wide as twice the offset along each edge
+    if (signedOffset > 0.0) {
+
+      for (int i = 0; i < n; i++) {
+
+        Point2f s = vertices.get(i).getInchCoordinates();
+        Point2f e = vertices.get((i+1)%n).getInchCoordinates();
+
+        float[] oval =
+          Segment.makeBodyCoords(2*signedOffset, s.distance(e),
+                                 Util.canonicalizeAngle(Math.atan2(e.y - s.y,
+                                                                   e.x - s.x)),
+                                 s, e);
+
+        if (oval != null)
+          strips.add(oval);
+      }
+    } else if (signedOffset < 0.0) {
+      System.out.println("WARNING: polygon fills can't be shrunk");
+    }
+
+    if (strips.isEmpty())
+      return;
+
+    int numCoords = 0;
+    for (float[] strip : strips)
+      numCoords += strip.length;
+
+    float[] coords = new float[numCoords];
+    int[] stripVertexCounts = new int[strips.size()];
+
+    int at = 0;
+    for (int i = 0; i < stripVertexCounts.length; i++) {
+
+      float[] strip = strips.get(i);
+
+      System.arraycopy(strip, 0, coords, at, strip.length);
+      at += strip.length;
+
+      stripVertexCounts[i] = strip.length/3;
+    }
+
+    geometries = new LinkedList<GeometryArray>();
+    geometries.add(makeTFA(coords, stripVertexCounts));
+  }
+
+  public Collection<GeometryArray> getSharedGeometries() {
+    return getGeometries();
+  }
+
+  public Vector2f getTranslation() {
+    return null;
+  }
+
+  /**
+   * A triangle as a fan around its centroid, starting at its shortest
+   * edge, which is what the Voronoi cones of a fan take as the overlap
+   * into it.
+   */
+  private static float[] makeTriangleFan(double[] x, double[] y,
+                                         int a, int b, int c) {
+
+    int[] corners = new int[] {a, b, c};
+
+    int first = 0;
+    double shortest = Double.POSITIVE_INFINITY;
+
+    for (int i = 0; i < 3; i++) {
+
+      double dx = x[corners[(i+1)%3]] - x[corners[i]];
+      double dy = y[corners[(i+1)%3]] - y[corners[i]];
+
+      double length = dx*dx + dy*dy;
+
+      if (length < shortest) {
+        shortest = length;
+        first = i;
+      }
+    }
+
+    float[] coords = new float[3*5];
+
+    coords[0] = (float) ((x[a] + x[b] + x[c])/3);
+    coords[1] = (float) ((y[a] + y[b] + y[c])/3);
+
+    for (int i = 0; i < 4; i++) {
+      int corner = corners[(first + i)%3];
+      coords[3*(i+1)] = (float) x[corner];
+      coords[3*(i+1)+1] = (float) y[corner];
+    }
+
+    return coords;
+  }
+
+  public String toString() {
+    return "polygon fill with " + vertices.size() + " vertices at " +
+      getLocation();
+  }
+
+  protected void offsetChanged() {
+  }
+
+  protected void inverseChanged() {
   }
 
-//  private List<Vertex> vertices = new LinkedList<Vertex>();
+  private List<Vertex> vertices;
 }
@@ -0,0 +1,303 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+package visolate.simulator;
+
+/**
+ * Cuts a simple polygon into triangles by clipping ears. A vertex is an
+ * ear if no other vertex lies in the triangle it forms with its
+ * neighbors; only reflex vertices can, so just those are looked up, in a
+ * grid of buckets over the polygon. That keeps the whole thing close to
+ * linear for the large outlines of copper pours.
+ *
+ * Polygons touching themselves, like the ones Gerber files cut holes into
+ * pours with, work too. Self intersecting ones end up triangulated
+ * somehow instead of endlessly.
+ */
+public class PolygonTriangulator {
+
+  public static final int VERTICES_PER_CELL = 2;
+
+  /**
+   * @return three indices into x and y per triangle, counterclockwise;
+   * degenerate triangles are left out
+   */
+  public static int[] triangulate(double[] x, double[] y) {
+    return new PolygonTriangulator(x, y).triangulate();
+  }
+
+  private PolygonTriangulator(double[] x, double[] y) {
+
+    this.x = x;
+    this.y = y;
+
+    n = x.length;
+
+    prev = new int[n];
+    next = new int[n];
+    reflex = new boolean[n];
+    removed = new boolean[n];
+
+    double area = 0.0;
+    for (int i = 0, j = n-1; i < n; j = i++)
+      area += x[j]*y[i] - x[i]*y[j];
+
+    // link the vertices counterclockwise
+    for (int i = 0; i < n; i++) {
+      if (area >= 0.0) {
+        next[i] = (i+1)%n;
+        prev[i] = (i+n-1)%n;
+      } else {
+        next[i] = (i+n-1)%n;
+        prev[i] = (i+1)%n;
+      }
+    }
+
+    for (int i = 0; i < n; i++)
+      reflex[i] = cross(prev[i], i, next[i]) < 0.0;
+
+    buildGrid();
+  }
+
+  private int[] triangulate() {
+
+    if (n < 3)
+      return new int[0];
+
+    int[] triangles = new int[3*(n-2)];
+    numTriangles = 0;
+
+    int remaining = n;
+    int i = 0;
+    int misses = 0;
+
+    while (remaining > 3) {
+
+      // no ear all the way round: not a simple polygon, clip anyway
+      if (isEar(i) || (misses > remaining)) {
+
+        int a = prev[i];
+        int c = next[i];
+
+        if (cross(a, i, c) > 0.0)
+          addTriangle(triangles, a, i, c);
+
+        next[a] = c;
+        prev[c] = a;
+        removed[i] = true;
+        remaining--;
+
+        reflex[a] = cross(prev[a], a, c) < 0.0;
+        reflex[c] = cross(a, c, next[c]) < 0.0;
+
+        i = c;
+        misses = 0;
+
+      } else {
+        i = next[i];
+        misses++;
+      }
+    }
+
+    if (cross(prev[i], i, next[i]) > 0.0)
+      addTriangle(triangles, prev[i], i, next[i]);
+
+    int[] result = new int[3*numTriangles];
+    System.arraycopy(triangles, 0, result, 0, result.length);
+
+    return result;
+  }
+
+  private void addTriangle(int[] triangles, int a, int b, int c) {
+    triangles[3*numTriangles] = a;
+    triangles[3*numTriangles+1] = b;
+    triangles[3*numTriangles+2] = c;
+    numTriangles++;
+  }
+
+  private boolean isEar(int b) {
+
+    int a = prev[b];
+    int c = next[b];
+
+    double turn = cross(a, b, c);
+
+    if (turn < 0.0)
+      return false;
+
+    // nothing in between, removing it doesn't change the polygon
+    if (turn == 0.0)
+      return true;
+
+    double minX = Math.min(x[a], Math.min(x[b], x[c]));
+    double minY = Math.min(y[a], Math.min(y[b], y[c]));
+    double maxX = Math.max(x[a], Math.max(x[b], x[c]));
+    double maxY = Math.max(y[a], Math.max(y[b], y[c]));
+
+    int i0 = cellX(minX);
+    int i1 = cellX(maxX);
+    int j0 = cellY(minY);
+    int j1 = cellY(maxY);
+
+    for (int j = j0; j <= j1; j++) {
+      for (int i = i0; i <= i1; i++) {
+
+        int cell = j*numCellsX + i;
+
+        for (int k = cellStart[cell]; k < cellStart[cell+1]; k++) {
+
+          int v = cellVertices[k];
+
+          if (removed[v] || !reflex[v] || (v == a) || (v == b) || (v == c))
+            continue;
+
+          if (isCorner(v, a) || isCorner(v, b) || isCorner(v, c))
+            continue;
+
+          if ((x[v] < minX) || (x[v] > maxX) || (y[v] < minY) || (y[v] > maxY))
+            continue;
+
+          if ((cross(a, b, v) >= 0.0) &&
+              (cross(b, c, v) >= 0.0) &&
+              (cross(c, a, v) >= 0.0))
+            return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private boolean isCorner(int v, int corner) {
+    return (x[v] == x[corner]) && (y[v] == y[corner]);
+  }
+
+  /**
+   * @return twice the signed area of the triangle a, b, c, positive if it
+   * turns left at b
+   */
+  private double cross(int a, int b, int c) {
+    return (x[b]-x[a])*(y[c]-y[a]) - (y[b]-y[a])*(x[c]-x[a]);
+  }
+
+  /**
+   * Puts the reflex vertices into buckets. Vertices only ever stop being
+   * reflex while ears are clipped, so the grid is built once.
+   */
+  private void buildGrid() {
+
+    minX = Double.POSITIVE_INFINITY;
+    minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+
+    int numReflex = 0;
+
+    for (int i = 0; i < n; i++) {
+
+      minX = Math.min(minX, x[i]);
+      minY = Math.min(minY, y[i]);
+      maxX = Math.max(maxX, x[i]);
+      maxY = Math.max(maxY, y[i]);
+
+      if (reflex[i])
+        numReflex++;
+    }
+
+    double width = maxX - minX;
+    double height = maxY - minY;
+
+    int numCells = Math.max(1, numReflex/VERTICES_PER_CELL);
+
+    cellSize = Math.max(Math.sqrt(width*height/numCells),
+                        Math.max(width, height)/numCells);
+
+    if (!(cellSize > 0.0))
+      cellSize = 1.0;
+
+    numCellsX = (int) Math.floor(width/cellSize) + 1;
+    numCellsY = (int) Math.floor(height/cellSize) + 1;
+
+    cellStart = new int[numCellsX*numCellsY + 1];
+    cellVertices = new int[numReflex];
+
+    for (int i = 0; i < n; i++)
+      if (reflex[i])
+        cellStart[cellOf(i) + 1]++;
+
+    for (int cell = 0; cell < numCellsX*numCellsY; cell++)
+      cellStart[cell+1] += cellStart[cell];
+
+    int[] fill = new int[numCellsX*numCellsY];
+
+    for (int i = 0; i < n; i++) {
+
+      if (!reflex[i])
+        continue;
+
+      int cell = cellOf(i);
+      cellVertices[cellStart[cell] + fill[cell]++] = i;
+    }
+  }
+
+  private int cellOf(int i) {
+    return cellY(y[i])*numCellsX + cellX(x[i]);
+  }
+
+  private int cellX(double px) {
+    return clamp((int) Math.floor((px - minX)/cellSize), numCellsX);
+  }
+
+  private int cellY(double py) {
+    return clamp((int) Math.floor((py - minY)/cellSize), numCellsY);
+  }
+
+  private static int clamp(int i, int n) {
+
+    if (i < 0)
+      return 0;
+
+    if (i >= n)
+      return n-1;
+
+    return i;
+  }
+
+  private final double[] x;
+  private final double[] y;
+  private final int n;
+
+  private final int[] prev;
+  private final int[] next;
+  private final boolean[] reflex;
+  private final boolean[] removed;
+
+  private int numTriangles;
+
+  private double minX;
+  private double minY;
+  private double cellSize;
+
+  private int numCellsX;
+  private int numCellsY;
+
+  private int[] cellStart;
+  private int[] cellVertices;
+}
@@ -0,0 +1,134 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+package visolate.simulator;
+
+import java.util.*;
+
+import javax.media.j3d.GeometryArray;
+import javax.vecmath.*;
+
+import visolate.misc.*;
+
+/**
+ * A copy of a stroke made by step and repeat. It has its own vertices, so
+ * it ends up in its own net, but its shape is that of the original stroke,
+ * just moved; nothing is tessellated again.
+ */
+public class RepeatedStroke extends Stroke {
+
+  public RepeatedStroke(Stroke source, Vertex start, Vertex end) {
+    super(source.aperture, start, end);
+    this.source = source;
+  }
+
+  public Stroke getSource() {
+    return source;
+  }
+
+  public double getLength() {
+    return source.getLength();
+  }
+
+  public double getStartForwardDirection() {
+    return source.getStartForwardDirection();
+  }
+
+  public double getStartReverseDirection() {
+    return source.getStartReverseDirection();
+  }
+
+  public double getEndForwardDirection() {
+    return source.getEndForwardDirection();
+  }
+
+  public double getEndReverseDirection() {
+    return source.getEndReverseDirection();
+  }
+
+  public Point2f[] getPathPoints() {
+
+    Point2f[] points = source.getPathPoints();
+    Vector2f t = getDisplacement();
+
+    Point2f[] moved = new Point2f[points.length];
+    for (int i = 0; i < points.length; i++) {
+      moved[i] = new Point2f(points[i]);
+      moved[i].add(t);
+    }
+
+    return moved;
+  }
+
+  /**
+   * @return the geometries of the source stroke
+   */
+  public Collection<GeometryArray> getSharedGeometries() {
+    return source.getSharedGeometries();
+  }
+
+  public Vector2f getTranslation() {
+
+    Vector2f t = getDisplacement();
+
+    Vector2f sourceTranslation = source.getTranslation();
+    if (sourceTranslation != null)
+      t.add(sourceTranslation);
+
+    return t;
+  }
+
+  /**
+   * @return how far this copy is from the source
+   */
+  private Vector2f getDisplacement() {
+    Vector2f t = new Vector2f(start.getInchCoordinates());
+    t.sub(source.getStart().getInchCoordinates());
+    return t;
+  }
+
+  protected void makeBounds() {
+
+    Rect b = source.getBounds();
+    Vector2f t = getDisplacement();
+
+    bounds = new Rect(b.x + t.x, b.y + t.y, b.width, b.height);
+  }
+
+  protected void makeGeometries() {
+    makeTranslatedGeometries();
+  }
+
+  public String toString() {
+    return "copy from " + start + " to " + end + " of " + source;
+  }
+
+  protected void offsetChanged() {
+    super.offsetChanged();
+    source.setOffset(offset);
+  }
+
+  protected void inverseChanged() {
+    super.inverseChanged();
+    source.setInverse(inverse);
+  }
+
+  private Stroke source;
+}
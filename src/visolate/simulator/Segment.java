@@ -25,7 +25,6 @@ import java.util.*;
 import visolate.misc.*;
 
 import javax.media.j3d.GeometryArray;
-import javax.media.j3d.TriangleFanArray;
 import javax.vecmath.*;
 
 public class Segment extends Stroke {
@@ -155,20 +154,41 @@ public class Segment extends Stroke {
 
   protected void makeGeometries() {
 
+    float[] coords = makeBodyCoords(getWidth(), getLength(), forwardDirection,
+                                    start.getInchCoordinates(),
+                                    end.getInchCoordinates());
+
+    if (coords == null) {
+      return;
+    }
+
+    geometries = new LinkedList<GeometryArray>();
+    geometries.add(makeTFA(coords));
+  }
+
+  /**
+   * Builds the oval a round aperture sweeps from s to e as the coordinates
+   * of a triangle fan: the center, the outline and the first outline point
+   * again.
+   *
+   * @return null if the oval is empty
+   */
+  static float[] makeBodyCoords(double width, double length, double direction,
+                                Point2f s, Point2f e) {
+
     // This code is copied from OboundAperture
 
     double x, y;
     double angle = 0.0;
-    double rx = getWidth() / 2;
-    double ry = getLength() / 2 + rx;
+    double rx = width / 2;
+    double ry = length / 2 + rx;
     double radius = Math.min(rx, ry);
     double halfLength = Math.abs(ry - rx);
 
     if (rx == 0.0 || ry == 0.0) {
-      return;
+      return null;
     }
 
-    geometries = new LinkedList<GeometryArray>();
     int i = 0;
     float[] coords = new float[3*(SEGMENTS + 4)];
 
@@ -204,18 +224,25 @@ public class Segment extends Stroke {
       angle += SECTOR;
     }
 
-    TriangleFanArray tfa = makeTFA(coords);
+    // Rotate around the origin, as rotateGeometry() would, then move to
+    // the middle of the stroke. Please don't ask why this PI thing is
+    // needed!
+    double sin = Math.sin(direction - Math.PI / 2);
+    double cos = Math.cos(direction - Math.PI / 2);
 
-    // Please don't ask why this PI thing is needed!
-    rotateGeometry(tfa, forwardDirection - Math.PI / 2);
+    float cx = (s.x + e.x) / 2;
+    float cy = (s.y + e.y) / 2;
 
-    Point2f s = start.getInchCoordinates();
-    Point2f e = end.getInchCoordinates();
-    Vector2f center = new Vector2f((s.x + e.x) / 2, (s.y + e.y) / 2);
-    translateGeometry(tfa, center);
+    for (i = 0; i < coords.length; i += 3) {
+
+      float px = coords[i];
+      float py = coords[i+1];
 
-    geometries.add(tfa);
+      coords[i] = ((float) (cos*px - sin*py)) + cx;
+      coords[i+1] = ((float) (sin*px + cos*py)) + cy;
+    }
 
+    return coords;
   }
 
   public String toString() {
@@ -163,7 +163,10 @@ public abstract class SimObject {
     if (geometry instanceof TriangleArray) {
     	return makeTA(coords);
     } else if (geometry instanceof TriangleFanArray) {
-    	return makeTFA(coords);
+    	TriangleFanArray fans = (TriangleFanArray) geometry;
+    	int[] stripVertexCounts = new int[fans.getNumStrips()];
+    	fans.getStripVertexCounts(stripVertexCounts);
+    	return makeTFA(coords, stripVertexCounts);
     } else {
     	throw new UnsupportedOperationException(geometry.getClass() +
     			" unhandled");
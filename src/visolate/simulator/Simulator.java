@@ -91,8 +91,13 @@ public class Simulator {
     vertices.clear();
     actions.clear();
 
+    repeatStart = -1;
+
     mode = DEF_MODE;
 
+    polygon = false;
+    contour.clear();
+
     aperture = DEF_APERTURE;
 
     exposure = DEF_EXPOSURE;
@@ -182,9 +187,27 @@ public class Simulator {
     if ((mode < 0) || (mode > 4))
       throw new SimulatorException("unknown mode: " + mode);
 
+    // polygon mode is on top of the interpolation mode, which still tells
+    // whether the edges are lines or arcs
+    if (mode == POLYGON) {
+      polygon = true;
+      return;
+    }
+
     this.mode = mode;
   }
 
+  /**
+   * Ends polygon mode, G37. The contour drawn last is closed.
+   */
+  public void endPolygon() {
+
+//    System.out.println("endPolygon()");
+
+    closeContour();
+    polygon = false;
+  }
+
   public void setAperture(int aperture) {
 
 //    System.out.println("setAperture(" + aperture + ")");
@@ -216,6 +239,29 @@ public class Simulator {
     if (y != null)
       yp = parseY(y);
 
+    moveTo(xp, yp);
+  }
+
+  /**
+   * Like setPosition(String, String), for coordinates already scanned into
+   * their value and their number of digits, which matters when trailing
+   * zeros are omitted. A coordinate with 0 digits is missing.
+   */
+  public void setPosition(int x, int xDigits, int y, int yDigits) {
+
+    int xp = p.x;
+    if (xDigits > 0)
+      xp = scale(x, xDigits, xWidth);
+
+    int yp = p.y;
+    if (yDigits > 0)
+      yp = scale(y, yDigits, yWidth);
+
+    moveTo(xp, yp);
+  }
+
+  private void moveTo(int xp, int yp) {
+
     int absX = toAbsoluteX(xp);
     int absY = toAbsoluteY(yp);
 
@@ -227,9 +273,24 @@ public class Simulator {
     if ((mode == RAPID) && (exposure != CLOSED))
       System.out.println("WARNING: rapid move with exposure open or flash");
 
-    if (mode == POLYGON) {
+    if (polygon) {
 
-      throw new UnsupportedOperationException("TBD polygon mode");
+      if (exposure == OPEN) {
+
+        if (contour.isEmpty())
+          contour.add(p);
+
+        switch (mode) {
+        case CCW: addContourArc(newP, 1); break;
+        case CW: addContourArc(newP, -1); break;
+        default: contour.add(newP);
+        }
+
+      } else if (exposure == CLOSED) {
+        closeContour();
+      } else {
+        System.out.println("WARNING: flash in polygon mode ignored");
+      }
 
     } else if ((exposure == FLASH) || ((exposure == OPEN) && p.equals(newP))) {
 
@@ -256,6 +317,46 @@ public class Simulator {
 
   public void addArc(Vertex end, int dir) {
 
+    Vertex center = getArcCenter(end, dir);
+
+    actions.add(new Arc(aperture, p, end, center,
+                        getArcSweep(end, dir, center), arcTolerance));
+  }
+
+  /**
+   * Adds the points of an arc to the contour, as many as an Arc of the
+   * same radius would have.
+   */
+  private void addContourArc(Vertex end, int dir) {
+
+    Vertex center = getArcCenter(end, dir);
+    double sweep = getArcSweep(end, dir, center);
+
+    int dx = p.x-center.x;
+    int dy = p.y-center.y;
+
+    double startT = Math.atan2(dy, dx);
+    double radius = Math.sqrt(dx*dx+dy*dy);
+
+    double radiusInches = radius/xScale;
+    if (metric)
+      radiusInches *= Vertex.MM_TO_IN;
+
+    int n = Math.max(1,
+                     (int) Math.ceil(Math.abs(sweep)/Arc.getStep(radiusInches,
+                                                               arcTolerance)));
+
+    for (int i = 1; i < n; i++) {
+      double t = startT + sweep*i/n;
+      contour.add(getVertex(center.x + ((int) Math.round(radius*Math.cos(t))),
+                            center.y + ((int) Math.round(radius*Math.sin(t)))));
+    }
+
+    contour.add(end);
+  }
+
+  private Vertex getArcCenter(Vertex end, int dir) {
+
 //    System.err.println(((arc360) ? "360 " : "quadrant ") +
 //                       ((dir > 0) ? "CCW" : "CW") +
 //                       " arc from " + p + " to " + end);
@@ -273,20 +374,27 @@ public class Simulator {
 
 //    System.err.println("  center (" + cx + ", " + cy + ")");
 
-    int dx = p.x-cx;
-    int dy = p.y-cy;
+    return getVertex(cx, cy);
+  }
+
+  /**
+   * @return the angle from the current point to end around center,
+   * positive counterclockwise
+   */
+  private double getArcSweep(Vertex end, int dir, Vertex center) {
+
+    int dx = p.x-center.x;
+    int dy = p.y-center.y;
 
     double startT = Util.canonicalizeAngle(Math.atan2(dy, dx));
-    double radius = Math.sqrt(dx*dx+dy*dy);
 
 //    System.err.println("  start angle: " + Math.toDegrees(startT) + " deg");
-//    System.err.println("  radius: " + radius + " mils");
 
     double csT = Math.cos(startT);
     double ssT = Math.sin(startT);
 
-    dx = end.x-cx;
-    dy = end.y-cy;
+    dx = end.x-center.x;
+    dy = end.y-center.y;
 
     double standardEndX =  dx*csT    - dy*(-ssT);
     double standardEndY =  dx*(-ssT) + dy*csT;
@@ -297,37 +405,15 @@ public class Simulator {
 //    System.err.println("  end angle (standard pos): " +
 //                       Math.toDegrees(standardEndT) + " deg");
 
-    double x = 0.0;
-    double y = 0.0;
-
-    Vertex prev = p;
-    Vertex current = p;
-
-    for (double t = ((dir > 0 ) ? 0.0 : 2.0*Math.PI);
-         ((dir > 0) ? (t < standardEndT) : (t > standardEndT));
-         t += (ARC_RESOLUTION*dir)) {
-
-      x = radius*Math.cos(t);
-      y = radius*Math.sin(t);
-
-//      System.err.println("  current angle (standard pos): " +
-//                         Math.toDegrees(t) + " deg");
+    double sweep = (dir > 0) ? standardEndT : standardEndT - 2.0*Math.PI;
 
-      if (t > 0.0) {
+    // in 360 mode, ending where it started is a full circle
+    if ((standardEndT == 0.0) && arc360)
+      sweep = 2.0*Math.PI*dir;
+    else if (standardEndT == 0.0)
+      sweep = 0.0;
 
-        current = getVertex(cx+((int) Math.round(x*csT - y*ssT)),
-                            cy+((int) Math.round(x*ssT + y*csT)));
-
-//        System.err.println("  adding segment from " + prev + " to " + current);
-
-        actions.add(new Segment(aperture, prev, current));
-      }
-
-      prev = current;
-    }
-
-//    System.err.println("  adding segment from " + prev + " to " + end);
-    actions.add(new Segment(aperture, prev, end));
+    return sweep;
   }
 
   private int sign(int i) {
@@ -349,49 +435,36 @@ public class Simulator {
   }
 
   private int parseX(String coord) {
-
-    int x = 0;
-
-    if (!ignoreTrailing) {
-
-      x = Integer.parseInt(coord);
-
-    } else {
-
-      StringBuffer buf = new StringBuffer();
-      buf.append(coord);
-
-      for (int pad = xWidth - coord.length(); pad > 0; pad--)
-        buf.append("0");
-
-      x = Integer.parseInt(buf.toString());
-    }
-
-//    System.out.println("parsed x coord \"" + coord + "\" as " + x);
-    return x;
+    return parseCoord(coord, xWidth);
   }
 
   private int parseY(String coord) {
+    return parseCoord(coord, yWidth);
+  }
 
-    int y = 0;
-
-    if (!ignoreTrailing) {
-
-      y = Integer.parseInt(coord);
+  /**
+   * Reads a signed coordinate token digit by digit, no Integer.parseInt()
+   * and no padding StringBuffer.
+   */
+  private int parseCoord(String coord, int width) {
 
-    } else {
+    int value = 0;
+    int digits = 0;
+    boolean negative = false;
 
-      StringBuffer buf = new StringBuffer();
-      buf.append(coord);
+    for (int i = 0; i < coord.length(); i++) {
 
-      for (int pad = yWidth - coord.length(); pad > 0; pad--)
-        buf.append("0");
+      char c = coord.charAt(i);
 
-      y = Integer.parseInt(buf.toString());
+      if (c == '-') {
+        negative = true;
+      } else if (c != '+') {
+        value = value*10 + (c - '0');
+        digits++;
+      }
     }
 
-//    System.out.println("parsed y coord \"" + coord + "\" as " + y);
-    return y;
+    return scale(negative ? -value : value, digits, width);
   }
 
   private int toAbsoluteX(int x) {
@@ -409,25 +482,37 @@ public class Simulator {
   }
 
   private Vertex getVertex(int x, int y) {
+    return vertices.get(x, y);
+  }
 
-    Vertex v = new Vertex(x, y);
-
-    if ((vertices.keySet()).contains(v)) {
+  public void computeInchCoordinates() {
+	  for (Vertex vertex : vertices.getVertices()) {
+	      vertex.computeInchCoordinates(xScale, yScale, metric);
+	    }
+  }
 
-//      System.out.println("using existing vertex " + v);
+  /**
+   * Like setCenter(String, String), see setPosition(int, int, int, int).
+   */
+  public void setCenter(int i, int iDigits, int j, int jDigits) {
 
-      return (Vertex) vertices.get(v);
+    if (iDigits > 0)
+      ci = scale(i, iDigits, xWidth);
 
-    } else {
-      vertices.put(v, v);
-      return v;
-    }
+    if (jDigits > 0)
+      cj = scale(j, jDigits, yWidth);
   }
 
-  public void computeInchCoordinates() {
-	  for (Vertex vertex : vertices.values()) {
-	      vertex.computeInchCoordinates(xScale, yScale, metric);
-	    }
+  /**
+   * Pads a coordinate with the omitted trailing zeros, if any.
+   */
+  private int scale(int value, int digits, int width) {
+
+    if (ignoreTrailing)
+      for (int pad = width - digits; pad > 0; pad--)
+        value *= 10;
+
+    return value;
   }
 
   public void setCenter(String i, String j) {
@@ -441,6 +526,114 @@ public class Simulator {
       cj = parseY(j);
   }
 
+  /**
+   * Starts a step and repeat block, ending the one before, if any. The
+   * actions of a block are repeated xRepeat times in X, i apart, and
+   * yRepeat times in Y, j apart. i and j are in inches or millimeters.
+   */
+  public void stepAndRepeat(int xRepeat, int yRepeat, double i, double j) {
+
+//    System.out.println("stepAndRepeat(" + xRepeat + ", " + yRepeat + ", " +
+//                       i + ", " + j + ")");
+
+    endStepAndRepeat();
+
+    if ((xRepeat < 1) || (yRepeat < 1))
+      throw new SimulatorException("bad step and repeat: " +
+                                   xRepeat + " x " + yRepeat);
+
+    if ((xRepeat == 1) && (yRepeat == 1))
+      return;
+
+    repeatStart = actions.size();
+    repeatX = xRepeat;
+    repeatY = yRepeat;
+    repeatI = (int) Math.round(i*xScale);
+    repeatJ = (int) Math.round(j*yScale);
+  }
+
+  /**
+   * Copies the actions of the current step and repeat block. Strokes are
+   * repeated as RepeatedStrokes sharing the shape of the original; flashes
+   * already share the geometry of their aperture.
+   */
+  private void endStepAndRepeat() {
+
+    if (repeatStart < 0)
+      return;
+
+    Action[] block = actions.subList(repeatStart, actions.size()).
+      toArray(new Action[actions.size() - repeatStart]);
+
+    repeatStart = -1;
+
+    for (int row = 0; row < repeatY; row++) {
+      for (int column = 0; column < repeatX; column++) {
+
+        if ((row == 0) && (column == 0))
+          continue;
+
+        int dx = column*repeatI;
+        int dy = row*repeatJ;
+
+        for (Action action : block) {
+
+          if (action instanceof PolygonFill) {
+
+            List<Vertex> moved = new ArrayList<Vertex>();
+            for (Vertex v : ((PolygonFill) action).getVertices())
+              moved.add(getVertex(v.x + dx, v.y + dy));
+
+            actions.add(new PolygonFill(moved));
+
+          } else if (action instanceof Flash) {
+
+            Flash flash = (Flash) action;
+            Vertex v = flash.getLocation();
+
+            actions.add(new Flash(flash.getAperture(),
+                                  getVertex(v.x + dx, v.y + dy)));
+
+          } else if (action instanceof Stroke) {
+
+            Stroke stroke = (Stroke) action;
+            Vertex s = stroke.getStart();
+            Vertex e = stroke.getEnd();
+
+            actions.add(new RepeatedStroke(stroke,
+                                           getVertex(s.x + dx, s.y + dy),
+                                           getVertex(e.x + dx, e.y + dy)));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Makes a PolygonFill of the contour drawn so far, if it encloses
+   * anything, and starts a new one.
+   */
+  private void closeContour() {
+
+    if (contour.size() >= 3)
+      actions.add(new PolygonFill(contour));
+    else if (!contour.isEmpty())
+      System.out.println("WARNING: ignoring polygon with less than 3 points");
+
+    contour.clear();
+  }
+
+  /**
+   * To be called when the whole program has been run, M02 or not.
+   */
+  public void endOfProgram() {
+
+    if (polygon)
+      endPolygon();
+
+    endStepAndRepeat();
+  }
+
   public void addMacro(final Macro macro) {
 
 //    System.out.println("addMacro(" + macro + ")");
@@ -456,6 +649,31 @@ public class Simulator {
     return actions;
   }
 
+  public double getArcTolerance() {
+    return arcTolerance;
+  }
+
+  /**
+   * Sets how closely arcs are tessellated, for the arcs made from now on
+   * and those made already. Region contours keep the points they were
+   * made with.
+   *
+   * @return whether the tolerance changed
+   */
+  public boolean setArcTolerance(double tolerance) {
+
+    if (tolerance == arcTolerance)
+      return false;
+
+    arcTolerance = tolerance;
+
+    for (Action action : actions)
+      if (action instanceof Arc)
+        ((Arc) action).setTolerance(tolerance);
+
+    return true;
+  }
+
   public void addAperture(Aperture aperture) {
 
 //    System.out.println("addAperture(" + aperture + ")");
@@ -469,11 +687,22 @@ public class Simulator {
 
   private Map<String, Macro> macros = new LinkedHashMap<String, Macro>();
   private Map<Integer, Aperture> apertures = new LinkedHashMap<Integer, Aperture>();
-  private Map<Vertex, Vertex> vertices = new LinkedHashMap<Vertex, Vertex>();
+  private VertexTable vertices = new VertexTable();
   private List<Action> actions = new LinkedList<Action>();
 
+  private double arcTolerance = Arc.DEF_TOLERANCE;
+
   private int mode = DEF_MODE;
 
+  private boolean polygon = false;
+  private List<Vertex> contour = new ArrayList<Vertex>();
+
+  private int repeatStart = -1;
+  private int repeatX;
+  private int repeatY;
+  private int repeatI;
+  private int repeatJ;
+
   private Aperture aperture = DEF_APERTURE;
 
   private int exposure = DEF_EXPOSURE;
@@ -20,6 +20,8 @@
 
 package visolate.simulator;
 
+import javax.vecmath.Point2f;
+
 public abstract class Stroke extends Action {
 
   public Stroke(Aperture aperture, Vertex start, Vertex end) {
@@ -43,6 +45,17 @@ public abstract class Stroke extends Action {
     return end;
   }
 
+  public Aperture getAperture() {
+    return aperture;
+  }
+
+  /**
+   * @return the points the middle of the stroke runs through, in inches
+   */
+  public Point2f[] getPathPoints() {
+    return new Point2f[] {start.getInchCoordinates(), end.getInchCoordinates()};
+  }
+
   public abstract String toString();
 
   public abstract double getLength();
@@ -0,0 +1,133 @@
+/**
+ * "Visolate" -- compute (Voronoi) PCB isolation routing toolpaths
+ *
+ * Copyright (C) 2004 Marsette A. Vona, III
+ *               2012 Markus Hitter <mah@jump-ing.de>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ **/
+
+package visolate.simulator;
+
+import java.util.Arrays;
+
+/**
+ * Interns vertices by their Gerber coordinates. The coordinates are packed
+ * into a long key in an open addressing hash table, so looking up a
+ * vertex which already exists allocates nothing.
+ */
+public class VertexTable {
+
+  public static final int DEF_CAPACITY = 1024;
+
+  public VertexTable() {
+    allocate(DEF_CAPACITY);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the vertex at (x, y), created if there is none yet
+   */
+  public Vertex get(int x, int y) {
+
+    long key = key(x, y);
+
+    int mask = keys.length - 1;
+
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+
+      if (vertices[i] == null) {
+
+        if ((size + 1)*4 > keys.length*3) {
+          grow();
+          return get(x, y);
+        }
+
+        keys[i] = key;
+        vertices[i] = new Vertex(x, y);
+        size++;
+
+        return vertices[i];
+      }
+
+      if (keys[i] == key)
+        return vertices[i];
+    }
+  }
+
+  /**
+   * @return all vertices, in no particular order
+   */
+  public Vertex[] getVertices() {
+
+    Vertex[] all = new Vertex[size];
+
+    int n = 0;
+    for (int i = 0; i < vertices.length; i++)
+      if (vertices[i] != null)
+        all[n++] = vertices[i];
+
+    return all;
+  }
+
+  public void clear() {
+    Arrays.fill(vertices, null);
+    size = 0;
+  }
+
+  private static long key(int x, int y) {
+    return (((long) y) << 32) | (x & 0xffffffffL);
+  }
+
+  private void grow() {
+
+    long[] oldKeys = keys;
+    Vertex[] oldVertices = vertices;
+
+    allocate(oldKeys.length*2);
+
+    int mask = keys.length - 1;
+
+    for (int j = 0; j < oldKeys.length; j++) {
+
+      if (oldVertices[j] == null)
+        continue;
+
+      int i = hash(oldKeys[j]) & mask;
+      while (vertices[i] != null)
+        i = (i + 1) & mask;
+
+      keys[i] = oldKeys[j];
+      vertices[i] = oldVertices[j];
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    vertices = new Vertex[capacity];
+  }
+
+  private static int hash(long key) {
+    key *= 0x9e3779b97f4a7c15L;
+    return (int) (key ^ (key >>> 32));
+  }
+
+  private long[] keys;
+  private Vertex[] vertices;
+
+  private int size = 0;
+}